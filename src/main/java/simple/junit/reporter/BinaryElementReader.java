@@ -0,0 +1,218 @@
+package simple.junit.reporter;
+
+import static simple.junit.reporter.BinaryElementWriter.MAGIC;
+import static simple.junit.reporter.BinaryElementWriter.NODE_CDATA;
+import static simple.junit.reporter.BinaryElementWriter.NODE_ELEMENT;
+import static simple.junit.reporter.BinaryElementWriter.NODE_TEXT;
+import static simple.junit.reporter.BinaryElementWriter.RECORD_ELEMENT;
+import static simple.junit.reporter.BinaryElementWriter.RECORD_END;
+import static simple.junit.reporter.BinaryElementWriter.RECORD_START;
+import static simple.junit.reporter.BinaryElementWriter.STRING_DEFINITION;
+import static simple.junit.reporter.BinaryElementWriter.STRING_INDEX_OFFSET;
+import static simple.junit.reporter.BinaryElementWriter.STRING_LITERAL;
+import static simple.junit.reporter.BinaryElementWriter.VALUE_DECIMAL;
+import static simple.junit.reporter.BinaryElementWriter.VALUE_STRING;
+import static simple.junit.reporter.BinaryElementWriter.VERSION;
+import static simple.junit.utils.Strings.concat;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Reads a suite written by {@link BinaryElementWriter}. Since every record
+ * is prefixed by its length, the records of a file cut short by a crashed
+ * test JVM are read up to the last complete one.
+ */
+final class BinaryElementReader {
+
+	private final DataInputStream in;
+
+	private final List<String> strings = new ArrayList<String>();
+
+	private byte[] record = new byte[8192];
+
+	private int position;
+
+	private int limit;
+
+	private boolean complete;
+
+	BinaryElementReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Tells whether the given stream, which has to support marks, starts
+	 * with binary results.
+	 */
+	static boolean isBinary(InputStream in) throws IOException {
+		in.mark(MAGIC.length);
+		try {
+			for (byte b : MAGIC)
+				if (in.read() != b)
+					return false;
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/** Reads the suite into the given document, whose element it becomes. */
+	Element read(Document document) throws IOException {
+		for (byte b : MAGIC)
+			if (in.readByte() != b)
+				throw new IOException("Not a binary result file");
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException(concat("Unsupported binary result version ",
+					version));
+		Element testsuite = null;
+		while (readRecord()) {
+			int type = readByte();
+			if (type == RECORD_START) {
+				testsuite = readNameAndAttributes(document);
+				document.appendChild(testsuite);
+			} else if (type == RECORD_ELEMENT && testsuite != null)
+				testsuite.appendChild(readElement(document));
+			else if (type == RECORD_END && testsuite != null) {
+				complete = true;
+				break;
+			} else
+				throw corrupted();
+		}
+		return testsuite;
+	}
+
+	/**
+	 * Tells whether the whole suite was read, rather than the records before
+	 * the end of a truncated file.
+	 */
+	boolean complete() {
+		return complete;
+	}
+
+	private boolean readRecord() throws IOException {
+		int length;
+		try {
+			length = (int) readVarint(in);
+		} catch (EOFException e) {
+			return false;
+		}
+		if (length < 0)
+			throw corrupted();
+		if (length > record.length)
+			record = new byte[Math.max(length, record.length * 2)];
+		try {
+			in.readFully(record, 0, length);
+		} catch (EOFException e) {
+			return false;
+		}
+		position = 0;
+		limit = length;
+		return true;
+	}
+
+	private Element readElement(Document document) throws IOException {
+		Element element = readNameAndAttributes(document);
+		int count = (int) readVarint();
+		for (int i = 0; i < count; i++) {
+			switch (readByte()) {
+			case NODE_ELEMENT:
+				element.appendChild(readElement(document));
+				break;
+			case NODE_TEXT:
+				element.appendChild(document.createTextNode(readString()));
+				break;
+			case NODE_CDATA:
+				element.appendChild(document.createCDATASection(readString()));
+				break;
+			default:
+				throw corrupted();
+			}
+		}
+		return element;
+	}
+
+	private Element readNameAndAttributes(Document document)
+			throws IOException {
+		Element element = document.createElement(readString());
+		int count = (int) readVarint();
+		for (int i = 0; i < count; i++) {
+			String name = readString();
+			element.setAttribute(name, readValue());
+		}
+		return element;
+	}
+
+	private String readValue() throws IOException {
+		switch (readByte()) {
+		case VALUE_STRING:
+			return readString();
+		case VALUE_DECIMAL:
+			long unscaled = readVarint();
+			return BigDecimal.valueOf(unscaled, readByte()).toPlainString();
+		default:
+			throw corrupted();
+		}
+	}
+
+	private String readString() throws IOException {
+		int reference = (int) readVarint();
+		if (reference >= STRING_INDEX_OFFSET) {
+			int index = reference - STRING_INDEX_OFFSET;
+			if (index >= strings.size())
+				throw corrupted();
+			return strings.get(index);
+		}
+		int length = (int) readVarint();
+		if (length < 0 || length > limit - position)
+			throw corrupted();
+		String value = new String(record, position, length, "UTF-8");
+		position += length;
+		if (reference == STRING_DEFINITION)
+			strings.add(value);
+		else if (reference != STRING_LITERAL)
+			throw corrupted();
+		return value;
+	}
+
+	private int readByte() throws IOException {
+		if (position == limit)
+			throw corrupted();
+		return record[position++] & 0xff;
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw corrupted();
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw corrupted();
+	}
+
+	private static IOException corrupted() {
+		return new IOException("Corrupted binary result file");
+	}
+}
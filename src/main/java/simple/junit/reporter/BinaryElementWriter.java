@@ -0,0 +1,284 @@
+package simple.junit.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import simple.junit.reporter.ImageHandler.EncodedImage;
+
+import static simple.junit.utils.Strings.concat;
+
+/**
+ * Writes results in the compact binary format read by
+ * {@link BinaryElementReader}.
+ * <p>
+ * A result file starts with {@link #MAGIC} and a version byte, followed by
+ * records, each prefixed by its length: the start of the suite with its
+ * attributes, one record per child element and the end of the suite. Names
+ * and short values are written once and then referred to by their index in
+ * a string table both sides build as they go, and decimal values such as
+ * times are written as varints with their scale.
+ */
+final class BinaryElementWriter implements ResultStreamWriter {
+
+	static final byte[] MAGIC = { 'J', 'U', 'R', 'B' };
+
+	static final int VERSION = 1;
+
+	static final int RECORD_START = 1;
+
+	static final int RECORD_ELEMENT = 2;
+
+	static final int RECORD_END = 3;
+
+	static final int NODE_ELEMENT = 1;
+
+	static final int NODE_TEXT = 2;
+
+	static final int NODE_CDATA = 3;
+
+	static final int VALUE_STRING = 0;
+
+	static final int VALUE_DECIMAL = 1;
+
+	/** Refers to a string written in full and not added to the table. */
+	static final int STRING_LITERAL = 0;
+
+	/** Refers to a string written in full and added to the table. */
+	static final int STRING_DEFINITION = 1;
+
+	/** Table indexes are offset by the two references above. */
+	static final int STRING_INDEX_OFFSET = 2;
+
+	// a multiple of 4, so that every chunk but the last encodes whole bytes
+	private static final int BASE64_CHUNK_LENGTH = 4 * 1024;
+
+	// longer strings, such as stack traces and output, rarely repeat
+	private static final int MAX_INTERNED_LENGTH = 256;
+
+	// unscaled values of at most 18 digits fit in a long
+	private static final int MAX_DECIMAL_DIGITS = 18;
+
+	private final OutputStream out;
+
+	private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+	private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+	BinaryElementWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	public void writeStartDocument() throws XMLStreamException {
+		try {
+			out.write(MAGIC);
+			out.write(VERSION);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	public void writeStartElement(Element element) throws XMLStreamException {
+		record.write(RECORD_START);
+		writeNameAndAttributes(element);
+		writeRecord();
+	}
+
+	public void write(Element element) throws XMLStreamException {
+		record.write(RECORD_ELEMENT);
+		writeElement(element);
+		writeRecord();
+	}
+
+	public void writeEndElement() throws XMLStreamException {
+		record.write(RECORD_END);
+		writeRecord();
+	}
+
+	public void flush() throws XMLStreamException {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	public void writeEndDocument() throws XMLStreamException {
+		flush();
+	}
+
+	/** Leaves the stream open, as {@code XMLStreamWriter.close} does. */
+	public void close() {
+	}
+
+	/** Writes a whole suite, for results which were not streamed. */
+	void writeDocument(Element testsuite) throws XMLStreamException {
+		writeStartDocument();
+		writeStartElement(testsuite);
+		for (Node child = testsuite.getFirstChild(); child != null; child = child
+				.getNextSibling())
+			if (child instanceof Element)
+				write((Element) child);
+		writeEndElement();
+		writeEndDocument();
+	}
+
+	private void writeRecord() throws XMLStreamException {
+		header.reset();
+		writeVarint(header, record.size());
+		try {
+			header.writeTo(out);
+			record.writeTo(out);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			record.reset();
+		}
+	}
+
+	private void writeElement(Element element) {
+		writeNameAndAttributes(element);
+		int count = 0;
+		for (Node child = element.getFirstChild(); child != null; child = child
+				.getNextSibling())
+			if (nodeKind(child) != 0)
+				count++;
+		Object image = element.getUserData(ImageHandler.ENCODED_IMAGE);
+		if (image != null)
+			count++;
+		writeVarint(record, count);
+		for (Node child = element.getFirstChild(); child != null; child = child
+				.getNextSibling()) {
+			int kind = nodeKind(child);
+			if (kind == 0)
+				continue;
+			record.write(kind);
+			if (kind == NODE_ELEMENT)
+				writeElement((Element) child);
+			else
+				writeString(child.getNodeValue());
+		}
+		if (image != null)
+			writeBase64((EncodedImage) image);
+	}
+
+	/**
+	 * Writes an encoded image as a Base64 text node a chunk at a time, rather
+	 * than turning it into text whole first.
+	 */
+	private void writeBase64(EncodedImage image) {
+		record.write(NODE_TEXT);
+		record.write(STRING_LITERAL);
+		writeVarint(record, image.base64Length());
+		char[] chunk = new char[BASE64_CHUNK_LENGTH];
+		for (int from = 0; from < image.size(); from += EncodedImage
+				.chunkBytes(chunk)) {
+			int length = image.encode(from, chunk);
+			for (int i = 0; i < length; i++)
+				record.write(chunk[i]);
+		}
+	}
+
+	private static int nodeKind(Node node) {
+		switch (node.getNodeType()) {
+		case Node.ELEMENT_NODE:
+			return NODE_ELEMENT;
+		case Node.TEXT_NODE:
+			return NODE_TEXT;
+		case Node.CDATA_SECTION_NODE:
+			return NODE_CDATA;
+		default:
+			return 0;
+		}
+	}
+
+	private void writeNameAndAttributes(Element element) {
+		writeString(element.getTagName());
+		NamedNodeMap attributes = element.getAttributes();
+		writeVarint(record, attributes.getLength());
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr) attributes.item(i);
+			writeString(attribute.getName());
+			writeValue(attribute.getValue());
+		}
+	}
+
+	private void writeValue(String value) {
+		int dot = value.indexOf('.');
+		if (!isDecimal(value, dot)) {
+			record.write(VALUE_STRING);
+			writeString(value);
+			return;
+		}
+		String digits = dot < 0 ? value : concat(value.substring(0, dot),
+				value.substring(dot + 1));
+		record.write(VALUE_DECIMAL);
+		writeVarint(record, Long.parseLong(digits));
+		record.write(dot < 0 ? 0 : value.length() - dot - 1);
+	}
+
+	/**
+	 * Tells whether a value is a plain non-negative decimal which reads back
+	 * the same from its unscaled value and scale, as times and counts do.
+	 */
+	private static boolean isDecimal(String value, int dot) {
+		int length = value.length();
+		int digits = dot < 0 ? length : length - 1;
+		if (digits == 0 || digits > MAX_DECIMAL_DIGITS || dot == 0
+				|| dot == length - 1)
+			return false;
+		// leading zeros would be lost
+		if (value.charAt(0) == '0' && length > 1 && dot != 1)
+			return false;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if ((c < '0' || c > '9') && i != dot)
+				return false;
+		}
+		return true;
+	}
+
+	private void writeString(String value) {
+		Integer index = strings.get(value);
+		if (index != null) {
+			writeVarint(record, index + STRING_INDEX_OFFSET);
+			return;
+		}
+		if (value.length() <= MAX_INTERNED_LENGTH) {
+			strings.put(value, strings.size());
+			record.write(STRING_DEFINITION);
+		} else
+			record.write(STRING_LITERAL);
+		byte[] bytes = utf8(value);
+		writeVarint(record, bytes.length);
+		record.write(bytes, 0, bytes.length);
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
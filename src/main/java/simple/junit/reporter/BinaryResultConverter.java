@@ -0,0 +1,80 @@
+package simple.junit.reporter;
+
+import static simple.junit.utils.Closeables.closeQuietly;
+import static simple.junit.utils.Strings.concat;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.tools.ant.util.DOMElementWriter;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Converts binary result files, which {@link XmlJUnitResultFormatter} writes
+ * when {@code simple.junit.reporter.format} is {@code binary}, gzip
+ * compressed or not, to the result XML files it writes otherwise, for tools
+ * that only read those.
+ * <p>
+ * Usage: {@code BinaryResultConverter binaryFile xmlFile}
+ */
+public final class BinaryResultConverter {
+
+	private BinaryResultConverter() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryResultConverter binaryFile xmlFile");
+			System.exit(2);
+		}
+		convert(new File(args[0]), new File(args[1]));
+	}
+
+	public static void convert(File binaryFile, File xmlFile)
+			throws IOException {
+		Element testsuite = read(binaryFile);
+		JUnitReportTask.liftStreamedTotals(testsuite);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(xmlFile), "UTF8"));
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			new DOMElementWriter().write(testsuite, writer, 0, "  ");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static Element read(File binaryFile) throws IOException {
+		InputStream in = null;
+		try {
+			in = JUnitReportTask.uncompressed(new FileInputStream(binaryFile));
+			BinaryElementReader reader = new BinaryElementReader(in);
+			Element testsuite = reader.read(newDocument());
+			if (testsuite == null || !reader.complete())
+				throw new IOException(concat("The file ", binaryFile,
+						" is truncated"));
+			return testsuite;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static Document newDocument() {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.newDocument();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package simple.junit.reporter;
+
+import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.quote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.tools.ant.BuildException;
+import org.w3c.dom.Element;
+
+/**
+ * Sends the elements a streaming formatter writes to a
+ * {@link ResultCollector} as well, so that the collector can show results
+ * while the tests run. A collector that cannot be reached or goes away never
+ * fails or slows down the tests: the elements are written to a queue that a
+ * daemon thread sends from, elements that do not fit in the queue are
+ * dropped, and the first failure turns the feed off for the rest of the run.
+ */
+final class CollectorFeed {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+	private static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+	private static final long POLL_MILLIS = 100;
+
+	// set once the collector could not be reached or went away
+	private static volatile boolean disabled;
+
+	private final Socket socket;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	private final StreamingElementWriter writer;
+
+	private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+
+	private final AtomicInteger queuedBytes = new AtomicInteger();
+
+	private volatile boolean ended;
+
+	private boolean closed;
+
+	private CollectorFeed(Socket socket) throws XMLStreamException {
+		this.socket = socket;
+		writer = new StreamingElementWriter(buffer);
+	}
+
+	/**
+	 * Connects to the collector listening at the given {@code host:port}, or
+	 * returns {@code null} if it cannot be reached or could not be reached
+	 * before.
+	 */
+	static CollectorFeed connect(String address) {
+		int colon = address.lastIndexOf(':');
+		int port = -1;
+		try {
+			port = Integer.parseInt(address.substring(colon + 1));
+		} catch (NumberFormatException ignored) {
+		}
+		if (colon <= 0 || port < 0)
+			throw new BuildException(concat(
+					"The collector address should be host:port but was ",
+					quote(address)));
+		if (disabled)
+			return null;
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(address.substring(0, colon),
+					port), CONNECT_TIMEOUT_MILLIS);
+			socket.setTcpNoDelay(true);
+			CollectorFeed feed = new CollectorFeed(socket);
+			feed.startSending();
+			return feed;
+		} catch (Exception e) {
+			disabled = true;
+			close(socket);
+			return null;
+		}
+	}
+
+	/** Lets the next connection try a collector that could not be reached. */
+	static void retry() {
+		disabled = false;
+	}
+
+	private void startSending() throws IOException {
+		final OutputStream out = socket.getOutputStream();
+		new DaemonThreadFactory("collector-feed").newThread(new Runnable() {
+			public void run() {
+				send(out);
+			}
+		}).start();
+	}
+
+	/** Sends the queued chunks until the feed ends or the collector fails. */
+	private void send(OutputStream out) {
+		try {
+			while (true) {
+				byte[] chunk = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (chunk == null) {
+					if (ended)
+						break;
+					continue;
+				}
+				queuedBytes.addAndGet(-chunk.length);
+				out.write(chunk);
+				out.flush();
+			}
+		} catch (IOException e) {
+			disabled = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			ended = true;
+			chunks.clear();
+			close(socket);
+		}
+	}
+
+	void start(Element testsuite) {
+		if (closed)
+			return;
+		try {
+			writer.writeStartDocument();
+			writer.writeStartElement(testsuite);
+		} catch (XMLStreamException e) {
+			close();
+		}
+		flush();
+	}
+
+	void write(Element element) {
+		if (closed)
+			return;
+		try {
+			writer.write(element);
+		} catch (XMLStreamException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Queues the elements written since the last flush, or drops them if the
+	 * queue is full. The elements are written whole, so that what is sent
+	 * stays well-formed.
+	 */
+	void flush() {
+		if (closed)
+			return;
+		try {
+			writer.flush();
+		} catch (XMLStreamException e) {
+			close();
+			return;
+		}
+		if (buffer.size() == 0)
+			return;
+		byte[] chunk = buffer.toByteArray();
+		buffer.reset();
+		if (ended || disabled) {
+			close();
+			return;
+		}
+		if (queuedBytes.get() + chunk.length > MAX_QUEUED_BYTES)
+			return;
+		queuedBytes.addAndGet(chunk.length);
+		chunks.offer(chunk);
+	}
+
+	void end(Element totals) {
+		if (closed)
+			return;
+		try {
+			writer.write(totals);
+			writer.writeEndElement();
+			writer.writeEndDocument();
+		} catch (XMLStreamException e) {
+			close();
+			return;
+		}
+		flush();
+		close();
+	}
+
+	private void close() {
+		closed = true;
+		ended = true;
+		writer.close();
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
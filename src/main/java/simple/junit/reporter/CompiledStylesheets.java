@@ -0,0 +1,123 @@
+package simple.junit.reporter;
+
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+import static simple.junit.utils.Maps.newConcurrentHashMap;
+import static simple.junit.utils.Strings.concat;
+
+/**
+ * Compiled report stylesheets, shared so that repeated report runs do not
+ * parse and compile the same stylesheet again. Stylesheets using the class
+ * loader of this class are shared for the life of the JVM, while those
+ * using a class loader created for a classpath are shared by the project
+ * that created it, whose build cleans the loader up. A stylesheet is
+ * recompiled when its last-modified time changes.
+ */
+final class CompiledStylesheets {
+
+	private static final String PROJECT_REFERENCE = "simple.junit.reporter.stylesheets";
+
+	private static final ConcurrentMap<String, CompiledStylesheet> STYLESHEETS = newConcurrentHashMap();
+
+	/**
+	 * Returns the compiled stylesheet for the given system id, compiling it
+	 * if it is not cached yet or has been modified since it was compiled.
+	 * Extension classes called from the stylesheet are looked up in the
+	 * given classpath, or in the class loader of this class if it is
+	 * {@code null}.
+	 */
+	static CompiledStylesheet stylesheet(String systemId, long lastModified,
+			Path classpath, Project project)
+			throws TransformerConfigurationException {
+		ConcurrentMap<String, CompiledStylesheet> stylesheets = STYLESHEETS;
+		String key = systemId;
+		if (classpath != null) {
+			stylesheets = projectStylesheets(project);
+			key = concat(systemId, "|", classpath);
+		}
+		CompiledStylesheet stylesheet = stylesheets.get(key);
+		if (stylesheet != null && stylesheet.lastModified == lastModified)
+			return stylesheet;
+		ClassLoader classLoader = stylesheet != null ? stylesheet.classLoader
+				: classLoader(classpath, project);
+		stylesheet = new CompiledStylesheet(systemId, lastModified,
+				classLoader);
+		stylesheets.put(key, stylesheet);
+		return stylesheet;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ConcurrentMap<String, CompiledStylesheet> projectStylesheets(
+			Project project) {
+		synchronized (project) {
+			ConcurrentMap<String, CompiledStylesheet> stylesheets = (ConcurrentMap<String, CompiledStylesheet>) project
+					.getReference(PROJECT_REFERENCE);
+			if (stylesheets == null) {
+				stylesheets = newConcurrentHashMap();
+				project.addReference(PROJECT_REFERENCE, stylesheets);
+			}
+			return stylesheets;
+		}
+	}
+
+	private static ClassLoader classLoader(Path classpath, Project project) {
+		if (classpath == null)
+			return CompiledStylesheets.class.getClassLoader();
+		return project.createClassLoader(classpath);
+	}
+
+	static final class CompiledStylesheet {
+
+		private final long lastModified;
+
+		private final ClassLoader classLoader;
+
+		private final Templates templates;
+
+		private CompiledStylesheet(String systemId, long lastModified,
+				ClassLoader classLoader)
+				throws TransformerConfigurationException {
+			this.lastModified = lastModified;
+			this.classLoader = classLoader;
+			ClassLoader previous = CompiledStylesheets
+					.useClassLoader(classLoader);
+			try {
+				templates = TransformerFactory.newInstance().newTemplates(
+						new StreamSource(systemId));
+			} finally {
+				CompiledStylesheets.useClassLoader(previous);
+			}
+		}
+
+		/**
+		 * Makes the class loader of this stylesheet the context class loader
+		 * of the current thread, returning the one it replaces.
+		 */
+		ClassLoader useClassLoader() {
+			return CompiledStylesheets.useClassLoader(classLoader);
+		}
+
+		Transformer newTransformer() throws TransformerConfigurationException {
+			return templates.newTransformer();
+		}
+	}
+
+	static ClassLoader useClassLoader(ClassLoader classLoader) {
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		current.setContextClassLoader(classLoader);
+		return previous;
+	}
+
+	private CompiledStylesheets() {
+	}
+}
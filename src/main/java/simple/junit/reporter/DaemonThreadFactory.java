@@ -0,0 +1,22 @@
+package simple.junit.reporter;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads, so that a worker pool never keeps the build
+ * from exiting.
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,134 @@
+package simple.junit.reporter;
+
+import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+final class FrameRecorder {
+
+	static final String GIF_EXTENSION = "gif";
+
+	private static final Logger logger = Logger.getAnonymousLogger();
+
+	private final ScreenshotTaker screenshotTaker;
+
+	private final BufferedImage[] frames;
+
+	// the frame the next sample is taken into, null while one is taken
+	private BufferedImage spare;
+
+	private final long intervalMillis;
+
+	private int next;
+
+	private int count;
+
+	private ScheduledExecutorService sampler;
+
+	private boolean failureLogged;
+
+	FrameRecorder(ScreenshotTaker screenshotTaker, int frameCount,
+			double scale, long intervalMillis) {
+		this.screenshotTaker = screenshotTaker;
+		this.intervalMillis = intervalMillis;
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		int width = Math.max(1, (int) Math.round(screen.width * scale));
+		int height = Math.max(1, (int) Math.round(screen.height * scale));
+		frames = new BufferedImage[frameCount];
+		for (int i = 0; i < frameCount; i++)
+			frames[i] = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+		spare = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	synchronized void start() {
+		if (sampler != null)
+			return;
+		next = 0;
+		count = 0;
+		sampler = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("screenshot-recorder"));
+		sampler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				// an exception would cancel all the later samples
+				try {
+					sample();
+				} catch (RuntimeException e) {
+					logFailure(e);
+				}
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (sampler == null)
+			return;
+		sampler.shutdownNow();
+		sampler = null;
+	}
+
+	/**
+	 * Takes a sample into the spare frame and swaps it with the oldest one.
+	 * The capture and the scaling happen outside the lock, so that taking the
+	 * recent frames on a failure never waits for them.
+	 */
+	private void sample() {
+		BufferedImage frame;
+		synchronized (this) {
+			frame = spare;
+			spare = null;
+		}
+		// still taken by the sampler of a previous start
+		if (frame == null)
+			return;
+		try {
+			screenshotTaker.takeDesktopScreenshot(frame);
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				spare = frame;
+			}
+			throw e;
+		}
+		synchronized (this) {
+			spare = frames[next];
+			frames[next] = frame;
+			next = (next + 1) % frames.length;
+			if (count < frames.length)
+				count++;
+		}
+	}
+
+	/** Logs the first failure to take a frame, leaving out the next ones. */
+	private synchronized void logFailure(RuntimeException e) {
+		if (failureLogged)
+			return;
+		failureLogged = true;
+		logger.log(Level.WARNING, "Unable to record a frame", e);
+	}
+
+	synchronized List<BufferedImage> recentFrames() {
+		List<BufferedImage> recent = new ArrayList<BufferedImage>(count);
+		int first = (next - count + frames.length) % frames.length;
+		for (int i = 0; i < count; i++)
+			recent.add(copy(frames[(first + i) % frames.length]));
+		return recent;
+	}
+
+	private static BufferedImage copy(BufferedImage frame) {
+		BufferedImage copy = new BufferedImage(frame.getWidth(),
+				frame.getHeight(), frame.getType());
+		frame.copyData(copy.getRaster());
+		return copy;
+	}
+
+	long intervalMillis() {
+		return intervalMillis;
+	}
+}
@@ -2,25 +2,51 @@ package simple.junit.reporter;
 
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
 
 import simple.junit.reporter.GUITests;
 
+import static simple.junit.utils.Maps.newConcurrentHashMap;
+import static simple.junit.utils.Maps.newWeakHashMap;
 
 public final class GUITests {
 
+	/**
+	 * Results per test class, weakly keyed so that caching a class does not
+	 * keep its class loader alive.
+	 */
+	private static final Map<Class<?>, GUITestClass> CLASSES = newWeakHashMap();
+
 	public static boolean isGUITest(Class<?> type, Method method) {
-		if (isGUITest(type))
-			return true;
-		if (isGUITest(method))
-			return true;
-		return (isSuperclassGUITest(type, method));
+		return guiTestClass(type).isGUITest(type, method);
+	}
+
+	private static GUITestClass guiTestClass(Class<?> type) {
+		synchronized (CLASSES) {
+			GUITestClass guiTestClass = CLASSES.get(type);
+			if (guiTestClass == null) {
+				guiTestClass = new GUITestClass(type);
+				CLASSES.put(type, guiTestClass);
+			}
+			return guiTestClass;
+		}
+	}
+
+	private static boolean isTypeGUITest(Class<?> type) {
+		while (type != null) {
+			if (isGUITest(type))
+				return true;
+			type = type.getSuperclass();
+		}
+		return false;
 	}
 
-	private static boolean isSuperclassGUITest(Class<?> type, Method method) {
+	private static boolean isMethodGUITest(Class<?> type, Method method) {
+		if (isGUITest(method))
+			return true;
 		Class<?> superclass = type.getSuperclass();
 		while (superclass != null) {
-			if (isGUITest(superclass))
-				return true;
 			Method overriden = method(superclass, method.getName(),
 					method.getParameterTypes());
 			if (overriden != null && isGUITest(overriden))
@@ -44,6 +70,31 @@ public final class GUITests {
 		return annotation != null;
 	}
 
+	private static final class GUITestClass {
+
+		private final boolean guiTest;
+
+		/** Method results keyed by name and parameter types. */
+		private final Map<String, Boolean> methods = newConcurrentHashMap();
+
+		GUITestClass(Class<?> type) {
+			guiTest = isTypeGUITest(type);
+		}
+
+		boolean isGUITest(Class<?> type, Method method) {
+			if (guiTest)
+				return true;
+			String key = method.getName()
+					+ Arrays.toString(method.getParameterTypes());
+			Boolean guiTestMethod = methods.get(key);
+			if (guiTestMethod == null) {
+				guiTestMethod = isMethodGUITest(type, method);
+				methods.put(key, guiTestMethod);
+			}
+			return guiTestMethod;
+		}
+	}
+
 	private GUITests() {
 	}
 }
@@ -0,0 +1,235 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_CLASSNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTCASE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTSUITE;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Compares the tests of a run with their results in the previous runs of a
+ * {@link ResultStore}, and adds what stands out to the merged results as a
+ * {@code history} element the reports render:
+ * <ul>
+ * <li>{@code flaky} tests, whose outcome went from passed to failed or back
+ * at least {@link #MIN_FLIPS} times over the previous runs and this one;</li>
+ * <li>{@code slower} tests, which passed and took longer than they used to,
+ * by a modified z-score (the distance to the median of their previous
+ * passed times, over their median absolute deviation) above
+ * {@link #MIN_SCORE}. When more than half the previous times are the
+ * median, their mean absolute deviation stands in for the median one, and
+ * tests whose previous times are all the same are not compared. Tests need
+ * {@link #MIN_SAMPLES} previous times to be compared, and an increase under
+ * {@link #MIN_INCREASE} seconds is taken for noise.</li>
+ * </ul>
+ */
+final class HistoryComparison {
+
+	static final String HISTORY = "history";
+
+	static final String FLAKY = "flaky";
+
+	static final String SLOWER = "slower";
+
+	static final String ATTR_RUNS = "runs";
+
+	static final String ATTR_FLIPS = "flips";
+
+	static final String ATTR_MEDIAN = "median";
+
+	static final String ATTR_DEVIATION = "deviation";
+
+	static final int MIN_FLIPS = 2;
+
+	static final int MIN_SAMPLES = 5;
+
+	static final double MIN_SCORE = 3.5;
+
+	static final double MIN_INCREASE = 0.05;
+
+	// make the median and the mean absolute deviations of normal data
+	// estimate its standard deviation
+	private static final double MAD_SCALE = 1 / 0.6745;
+
+	private static final double MEAN_AD_SCALE = 1.253314;
+
+	private static final double MICROS = 1000000.0;
+
+	private final ResultStore store;
+
+	private final int runs;
+
+	HistoryComparison(ResultStore store, int runs) {
+		this.store = store;
+		this.runs = runs;
+	}
+
+	/**
+	 * Adds the {@code history} element of the given merged results, unless
+	 * there is no previous run to compare them with.
+	 */
+	void compare(Element testsuites) throws IOException {
+		if (store.runCount() == 0)
+			return;
+		Document document = testsuites.getOwnerDocument();
+		List<Element> flaky = new ArrayList<Element>();
+		List<Element> slower = new ArrayList<Element>();
+		Set<String> compared = new HashSet<String>();
+		for (Element suite : NativeReportRenderer.children(testsuites,
+				TESTSUITE))
+			for (Element testcase : NativeReportRenderer.children(suite,
+					TESTCASE)) {
+				String className = testcase.getAttribute(ATTR_CLASSNAME);
+				String methodName = testcase.getAttribute(ATTR_NAME);
+				if (!compared.add(ResultStore.testName(className, methodName)))
+					continue;
+				List<ResultStore.Result> previous = store.results(className,
+						methodName, ResultStore.NONE, runs);
+				boolean passed = passed(testcase);
+				Element flakyTest = flaky(document, testcase, passed, previous);
+				if (flakyTest != null)
+					flaky.add(flakyTest);
+				Element slowerTest = passed ? slower(document, testcase,
+						previous) : null;
+				if (slowerTest != null)
+					slower.add(slowerTest);
+			}
+		Collections.sort(flaky, new Descending(ATTR_FLIPS));
+		Collections.sort(slower, new Descending(ATTR_TIME, ATTR_MEDIAN));
+		Element history = document.createElement(HISTORY);
+		history.setAttribute(ATTR_RUNS, String.valueOf(Math.min(runs, store
+				.runCount())));
+		for (Element element : flaky)
+			history.appendChild(element);
+		for (Element element : slower)
+			history.appendChild(element);
+		testsuites.appendChild(history);
+	}
+
+	private static boolean passed(Element testcase) {
+		return NativeReportRenderer.child(testcase, FAILURE) == null
+				&& NativeReportRenderer.child(testcase, ERROR) == null;
+	}
+
+	private static Element flaky(Document document, Element testcase,
+			boolean passed, List<ResultStore.Result> previous) {
+		int flips = 0;
+		boolean later = passed;
+		// the previous results come latest first
+		for (ResultStore.Result result : previous) {
+			if (result.passed() != later)
+				flips++;
+			later = result.passed();
+		}
+		if (flips < MIN_FLIPS)
+			return null;
+		Element flaky = test(document, FLAKY, testcase);
+		flaky.setAttribute(ATTR_FLIPS, String.valueOf(flips));
+		flaky.setAttribute(ATTR_RUNS, String.valueOf(previous.size() + 1));
+		return flaky;
+	}
+
+	private static Element slower(Document document, Element testcase,
+			List<ResultStore.Result> previous) {
+		double[] times = new double[previous.size()];
+		int count = 0;
+		for (ResultStore.Result result : previous)
+			if (result.passed())
+				times[count++] = result.micros / MICROS;
+		if (count < MIN_SAMPLES)
+			return null;
+		double time = NativeReportRenderer.number(testcase, ATTR_TIME);
+		double median = median(times, count);
+		if (!(time - median >= MIN_INCREASE))
+			return null;
+		for (int i = 0; i < count; i++)
+			times[i] = Math.abs(times[i] - median);
+		double deviation = median(times, count);
+		double scale = MAD_SCALE;
+		if (deviation == 0) {
+			deviation = mean(times, count);
+			scale = MEAN_AD_SCALE;
+		}
+		if (deviation == 0
+				|| (time - median) / (scale * deviation) <= MIN_SCORE)
+			return null;
+		Element slower = test(document, SLOWER, testcase);
+		slower.setAttribute(ATTR_TIME, testcase.getAttribute(ATTR_TIME));
+		slower.setAttribute(ATTR_MEDIAN, seconds(median));
+		slower.setAttribute(ATTR_DEVIATION, seconds(deviation));
+		return slower;
+	}
+
+	/** Formats seconds as a plain decimal, which XPath can read. */
+	private static String seconds(double seconds) {
+		return BigDecimal.valueOf(Math.round(seconds * MICROS), 6)
+				.stripTrailingZeros().toPlainString();
+	}
+
+	private static double median(double[] values, int count) {
+		Arrays.sort(values, 0, count);
+		int middle = count / 2;
+		return count % 2 == 1 ? values[middle]
+				: (values[middle - 1] + values[middle]) / 2;
+	}
+
+	private static double mean(double[] values, int count) {
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += values[i];
+		return sum / count;
+	}
+
+	private static Element test(Document document, String name,
+			Element testcase) {
+		Element test = document.createElement(name);
+		test.setAttribute(ATTR_CLASSNAME, testcase.getAttribute(ATTR_CLASSNAME));
+		test.setAttribute(ATTR_NAME, testcase.getAttribute(ATTR_NAME));
+		return test;
+	}
+
+	/**
+	 * Orders elements by decreasing value of an attribute, or of the
+	 * difference between two attributes.
+	 */
+	private static final class Descending implements Comparator<Element> {
+
+		private final String attribute;
+
+		private final String subtracted;
+
+		Descending(String attribute) {
+			this(attribute, null);
+		}
+
+		Descending(String attribute, String subtracted) {
+			this.attribute = attribute;
+			this.subtracted = subtracted;
+		}
+
+		public int compare(Element first, Element second) {
+			return Double.compare(value(second), value(first));
+		}
+
+		private double value(Element element) {
+			double value = NativeReportRenderer.number(element, attribute);
+			return subtracted == null ? value : value
+					- NativeReportRenderer.number(element, subtracted);
+		}
+	}
+}
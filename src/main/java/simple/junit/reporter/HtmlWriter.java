@@ -0,0 +1,166 @@
+package simple.junit.reporter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes US-ASCII HTML the way the {@code html} output method of the report
+ * stylesheets does: void elements are left unclosed, characters outside
+ * US-ASCII are written as character references, and those of attributes
+ * holding a URI are written %-escaped in UTF-8.
+ */
+final class HtmlWriter implements Closeable {
+
+	static final String ENCODING = "US-ASCII";
+
+	private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+	/** Attributes the {@code html} output method writes as URIs. */
+	private static final Set<String> URI_ATTRIBUTES = new HashSet<String>(
+			Arrays.asList("action", "cite", "classid", "codebase", "data",
+					"href", "longdesc", "profile", "src", "usemap"));
+
+	private final Writer out;
+
+	private boolean started;
+
+	HtmlWriter(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file), ENCODING));
+	}
+
+	/**
+	 * Starts an element with the given attributes, given as name and value
+	 * pairs. A boolean attribute, whose value is its own name, is written
+	 * without its value.
+	 */
+	HtmlWriter start(String name, String... attributes) throws IOException {
+		if (started)
+			out.write('\n');
+		started = true;
+		out.write('<');
+		out.write(name);
+		for (int i = 0; i < attributes.length; i += 2) {
+			out.write(' ');
+			out.write(attributes[i]);
+			if (attributes[i].equals(attributes[i + 1]))
+				continue;
+			out.write("=\"");
+			if (isUri(name, attributes[i]))
+				escapeUri(attributes[i + 1]);
+			else
+				escape(attributes[i + 1], true);
+			out.write('"');
+		}
+		out.write('>');
+		return this;
+	}
+
+	HtmlWriter end(String name) throws IOException {
+		out.write("</");
+		out.write(name);
+		out.write('>');
+		return this;
+	}
+
+	/** Writes an element which has no end tag, such as {@code br}. */
+	HtmlWriter empty(String name, String... attributes) throws IOException {
+		return start(name, attributes);
+	}
+
+	/** Writes an element holding the given text. */
+	HtmlWriter element(String name, Object text, String... attributes)
+			throws IOException {
+		return start(name, attributes).text(text).end(name);
+	}
+
+	HtmlWriter text(Object text) throws IOException {
+		escape(String.valueOf(text), false);
+		return this;
+	}
+
+	/** Writes the given markup as it is. */
+	HtmlWriter raw(String html) throws IOException {
+		out.write(html);
+		return this;
+	}
+
+	private void escape(String text, boolean attribute) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				out.write("&amp;");
+				break;
+			case '<':
+				out.write(attribute ? "<" : "&lt;");
+				break;
+			case '>':
+				out.write(attribute ? ">" : "&gt;");
+				break;
+			case '"':
+				out.write(attribute ? "&quot;" : "\"");
+				break;
+			default:
+				if (c < 0x80) {
+					out.write(c);
+					break;
+				}
+				int codePoint = text.codePointAt(i);
+				if (Character.isSupplementaryCodePoint(codePoint))
+					i++;
+				out.write("&#");
+				out.write(String.valueOf(codePoint));
+				out.write(';');
+			}
+		}
+	}
+
+	private static boolean isUri(String element, String attribute) {
+		return URI_ATTRIBUTES.contains(attribute)
+				|| (element.equals("a") && attribute.equals("name"));
+	}
+
+	private void escapeUri(String uri) throws IOException {
+		for (int i = 0; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			if (c == '&') {
+				out.write("&amp;");
+				continue;
+			}
+			if (c >= ' ' && c < 0x7f && c != '"') {
+				out.write(c);
+				continue;
+			}
+			int length = Character.charCount(uri.codePointAt(i));
+			for (byte b : utf8(uri.substring(i, i + length))) {
+				out.write('%');
+				out.write(HEX_DIGITS.charAt((b >> 4) & 0xf));
+				out.write(HEX_DIGITS.charAt(b & 0xf));
+			}
+			i += length - 1;
+		}
+	}
+
+	private static byte[] utf8(String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,44 @@
+package simple.junit.reporter;
+
+import javax.imageio.ImageIO;
+
+import static simple.junit.reporter.ScreenshotTaker.PNG_EXTENSION;
+import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.isNullOrEmpty;
+import static simple.junit.utils.Strings.quote;
+
+public final class ImageFormat {
+
+	public static final float DEFAULT_QUALITY = -1;
+
+	public static final ImageFormat PNG = new ImageFormat(PNG_EXTENSION,
+			DEFAULT_QUALITY);
+
+	private final String extension;
+
+	private final float quality;
+
+	public ImageFormat(String extension, float quality) {
+		if (isNullOrEmpty(extension))
+			throw new ImageException("The image format cannot be empty");
+		if (!ImageIO.getImageWritersBySuffix(extension).hasNext())
+			throw new ImageException(concat("Unsupported image format ",
+					quote(extension)));
+		if (quality > 1)
+			throw new ImageException("The image quality cannot exceed 1");
+		this.extension = extension.toLowerCase();
+		this.quality = quality;
+	}
+
+	public String extension() {
+		return extension;
+	}
+
+	public float quality() {
+		return quality;
+	}
+
+	public boolean hasExplicitQuality() {
+		return quality >= 0;
+	}
+}
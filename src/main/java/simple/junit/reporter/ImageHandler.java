@@ -4,10 +4,26 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -15,7 +31,7 @@ import static java.io.File.separator;
 import static java.util.logging.Level.SEVERE;
 import static java.util.logging.Level.WARNING;
 
-import static simple.junit.reporter.ScreenshotTaker.PNG_EXTENSION;
+import static simple.junit.reporter.FrameRecorder.GIF_EXTENSION;
 import static simple.junit.utils.Files.flushAndClose;
 import static simple.junit.utils.Files.newFile;
 import static simple.junit.utils.Strings.isNullOrEmpty;
@@ -24,20 +40,217 @@ public final class ImageHandler {
 
 	private static final String UTF_8 = "UTF-8";
 	private static final String EMPTY_STRING = "";
+	private static final String CONTENT_HASH_ALGORITHM = "SHA-1";
+	// a multiple of 4, so that every chunk but the last decodes on its own
+	private static final int DECODE_CHUNK_LENGTH = 16 * 1024;
 
 	private static Logger logger = Logger.getAnonymousLogger();
 
+	/**
+	 * Key of the user data of a screenshot or recording element holding its
+	 * {@link EncodedImage}, when the image is written as Base64 text straight
+	 * from its bytes rather than held as a text node.
+	 */
+	static final String ENCODED_IMAGE = "simple.junit.reporter.encodedImage";
+
+	private static final int POOLED_BUFFERS = 4;
+
+	/**
+	 * Buffers of encoded images kept for the next ones, whichever thread
+	 * encoded them.
+	 */
+	private static final BlockingQueue<EncodedImage> ENCODING_BUFFERS = new ArrayBlockingQueue<EncodedImage>(
+			POOLED_BUFFERS);
+
 	public static String encodeBase64(BufferedImage image) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		return encodeBase64(image, ImageFormat.PNG);
+	}
+
+	public static String encodeBase64(BufferedImage image, ImageFormat format) {
+		return toBase64(encode(image, format));
+	}
+
+	/**
+	 * Encodes the given image in the given format, or returns {@code null} if
+	 * it cannot be encoded. The encoded image is to be released once written.
+	 */
+	static EncodedImage encode(BufferedImage image, ImageFormat format) {
+		EncodedImage out = encodingBuffer();
 		try {
-			ImageIO.write(image, PNG_EXTENSION, out);
-			byte[] encoded = Base64.encodeBase64(out.toByteArray());
-			return new String(encoded, UTF_8);
+			write(image, format, out);
+			return out;
 		} catch (IOException e) {
 			logger.log(SEVERE, "Unable to encode image", e);
+			out.release();
+			return null;
+		}
+	}
+
+	private static String toBase64(EncodedImage image) {
+		if (image == null)
 			return null;
+		try {
+			return image.toBase64();
 		} finally {
-			flushAndClose(out);
+			image.release();
+		}
+	}
+
+	private static EncodedImage encodingBuffer() {
+		EncodedImage buffer = ENCODING_BUFFERS.poll();
+		return buffer != null ? buffer : new EncodedImage();
+	}
+
+	public static boolean save(BufferedImage image, File file,
+			ImageFormat format) {
+		try {
+			file.delete();
+			write(image, format, file);
+			return true;
+		} catch (IOException e) {
+			logger.log(SEVERE, "Unable to save image", e);
+			return false;
+		}
+	}
+
+	private static void write(BufferedImage image, ImageFormat format,
+			Object output) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersBySuffix(
+				format.extension()).next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(output);
+		if (out == null)
+			throw new IOException("Unable to create image output stream");
+		try {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (format.hasExplicitQuality() && param.canWriteCompressed()) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(format.quality());
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	/**
+	 * Encodes the given frames as an animated GIF, or returns {@code null} if
+	 * they cannot be encoded. The encoded animation is to be released once
+	 * written.
+	 */
+	static EncodedImage encodeAnimation(List<BufferedImage> frames,
+			long frameMillis) {
+		EncodedImage out = encodingBuffer();
+		try {
+			writeAnimation(frames, frameMillis, out);
+			return out;
+		} catch (IOException e) {
+			logger.log(SEVERE, "Unable to encode animation", e);
+			out.release();
+			return null;
+		}
+	}
+
+	public static boolean saveAnimation(List<BufferedImage> frames,
+			long frameMillis, File file) {
+		try {
+			file.delete();
+			writeAnimation(frames, frameMillis, file);
+			return true;
+		} catch (IOException e) {
+			logger.log(SEVERE, "Unable to save animation", e);
+			return false;
+		}
+	}
+
+	private static void writeAnimation(List<BufferedImage> frames,
+			long frameMillis, Object output) throws IOException {
+		if (frames.isEmpty())
+			throw new IOException("There are no frames to write");
+		ImageWriter writer = ImageIO.getImageWritersBySuffix(GIF_EXTENSION)
+				.next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(output);
+		if (out == null)
+			throw new IOException("Unable to create image output stream");
+		try {
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			boolean first = true;
+			for (BufferedImage frame : frames) {
+				IIOMetadata metadata = animationFrameMetadata(writer, frame,
+						frameMillis, first);
+				writer.writeToSequence(new IIOImage(frame, null, metadata),
+						null);
+				first = false;
+			}
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	private static IIOMetadata animationFrameMetadata(ImageWriter writer,
+			BufferedImage frame, long frameMillis, boolean first)
+			throws IOException {
+		IIOMetadata metadata = writer.getDefaultImageMetadata(
+				ImageTypeSpecifier.createFromRenderedImage(frame), null);
+		String format = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+		IIOMetadataNode control = metadataNode(root,
+				"GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("transparentColorIndex", "0");
+		control.setAttribute("delayTime", String.valueOf(frameMillis / 10));
+		if (first) {
+			IIOMetadataNode application = new IIOMetadataNode(
+					"ApplicationExtension");
+			application.setAttribute("applicationID", "NETSCAPE");
+			application.setAttribute("authenticationCode", "2.0");
+			application.setUserObject(new byte[] { 1, 0, 0 });
+			metadataNode(root, "ApplicationExtensions").appendChild(
+					application);
+		}
+		metadata.setFromTree(format, root);
+		return metadata;
+	}
+
+	private static IIOMetadataNode metadataNode(IIOMetadataNode root,
+			String name) {
+		for (int i = 0; i < root.getLength(); i++) {
+			if (root.item(i).getNodeName().equalsIgnoreCase(name))
+				return (IIOMetadataNode) root.item(i);
+		}
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		root.appendChild(node);
+		return node;
+	}
+
+	public static String contentHash(BufferedImage image) {
+		MessageDigest digest = contentDigest();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(width, 2) * 4);
+		int[] row = new int[width];
+		buffer.putInt(width).putInt(height).flip();
+		digest.update(buffer);
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			buffer.clear();
+			buffer.asIntBuffer().put(row);
+			digest.update(buffer);
+		}
+		return new BigInteger(1, digest.digest()).toString(16);
+	}
+
+	private static MessageDigest contentDigest() {
+		try {
+			return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new ImageException("Unable to hash image content", e);
 		}
 	}
 
@@ -53,26 +266,155 @@ public final class ImageHandler {
 		}
 	}
 
-	public static String decodeBase64AndSaveAsPng(String encoded,
-			String imageFilePath) {
+	public static String decodeBase64ToFile(String encoded, String filePath) {
 		if (isNullOrEmpty(encoded))
 			return EMPTY_STRING;
-		if (isNullOrEmpty(imageFilePath))
+		if (isNullOrEmpty(filePath))
 			return EMPTY_STRING;
-		String realPath = imageFilePath.replace("/", separator);
-		BufferedImage image = decodeBase64(encoded);
-		File newFile = new File(realPath);
-		if (newFile.exists())
+		String realPath = filePath.replace("/", separator);
+		if (new File(realPath).exists())
 			return EMPTY_STRING;
 		try {
-			newFile = newFile(realPath);
-			ImageIO.write(image, PNG_EXTENSION, newFile);
+			decodeBase64(encoded, newFile(realPath));
 		} catch (Exception ignored) {
 			logger.log(WARNING, ignored.getMessage());
 		}
 		return EMPTY_STRING;
 	}
 
+	/**
+	 * Decodes the given Base64 text into the given file a chunk at a time,
+	 * so that neither the encoded nor the decoded content is copied whole.
+	 * Characters outside the Base64 alphabet, such as line breaks, are
+	 * skipped. A partially written file is deleted.
+	 */
+	private static void decodeBase64(String encoded, File file)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			byte[] chunk = new byte[DECODE_CHUNK_LENGTH];
+			int length = 0;
+			for (int i = 0; i < encoded.length(); i++) {
+				char c = encoded.charAt(i);
+				if (!isBase64(c))
+					continue;
+				chunk[length++] = (byte) c;
+				if (length < chunk.length)
+					continue;
+				write(channel, Base64.decodeBase64(chunk));
+				length = 0;
+			}
+			if (length > 0) {
+				byte[] last = new byte[length];
+				System.arraycopy(chunk, 0, last, 0, length);
+				write(channel, Base64.decodeBase64(last));
+			}
+			written = true;
+		} finally {
+			flushAndClose(out);
+			if (!written)
+				file.delete();
+		}
+	}
+
+	private static boolean isBase64(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+				|| (c >= '0' && c <= '9') || c == '+' || c == '/' || c == '=';
+	}
+
+	private static void write(FileChannel channel, byte[] decoded)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(decoded);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	public static String decodeBase64AndSaveAsPng(String encoded,
+			String imageFilePath) {
+		return decodeBase64ToFile(encoded, imageFilePath);
+	}
+
+	/**
+	 * Saves an encoded screenshot as it is: screenshots are encoded in the
+	 * format their file name says, so they need no decoding as images.
+	 */
+	public static String decodeBase64AndSave(String encoded,
+			String imageFilePath) {
+		return decodeBase64ToFile(encoded, imageFilePath);
+	}
+
+	/**
+	 * Collects the bytes of an encoded image and turns them into Base64 text,
+	 * a chunk at a time when the text is written as it is encoded, without
+	 * copying the bytes first. Released buffers are pooled for the next
+	 * images, unless they grew too large to hold on to.
+	 */
+	static final class EncodedImage extends ByteArrayOutputStream {
+
+		private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+		private static final char[] ALPHABET = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+				+ "abcdefghijklmnopqrstuvwxyz0123456789+/").toCharArray();
+
+		EncodedImage() {
+			super(64 * 1024);
+		}
+
+		/**
+		 * Encodes the bytes from the given one, which is a multiple of 3, into
+		 * the given chunk, whose length is a multiple of 4. Returns the number
+		 * of characters encoded, which fill the chunk unless the image ends
+		 * first.
+		 */
+		int encode(int from, char[] chunk) {
+			int end = Math.min(count, from + chunk.length / 4 * 3);
+			int i = from;
+			int j = 0;
+			for (; i + 2 < end; i += 3) {
+				int bits = (buf[i] & 0xff) << 16 | (buf[i + 1] & 0xff) << 8
+						| (buf[i + 2] & 0xff);
+				chunk[j++] = ALPHABET[bits >>> 18];
+				chunk[j++] = ALPHABET[(bits >>> 12) & 0x3f];
+				chunk[j++] = ALPHABET[(bits >>> 6) & 0x3f];
+				chunk[j++] = ALPHABET[bits & 0x3f];
+			}
+			if (i < end) {
+				int bits = (buf[i] & 0xff) << 16;
+				if (i + 1 < end)
+					bits |= (buf[i + 1] & 0xff) << 8;
+				chunk[j++] = ALPHABET[bits >>> 18];
+				chunk[j++] = ALPHABET[(bits >>> 12) & 0x3f];
+				chunk[j++] = i + 1 < end ? ALPHABET[(bits >>> 6) & 0x3f] : '=';
+				chunk[j++] = '=';
+			}
+			return j;
+		}
+
+		/** Returns the number of bytes a chunk of the given length encodes. */
+		static int chunkBytes(char[] chunk) {
+			return chunk.length / 4 * 3;
+		}
+
+		int base64Length() {
+			return (count + 2) / 3 * 4;
+		}
+
+		String toBase64() {
+			char[] encoded = new char[base64Length()];
+			encode(0, encoded);
+			return new String(encoded);
+		}
+
+		void release() {
+			if (buf.length > MAX_RETAINED_SIZE)
+				return;
+			reset();
+			ENCODING_BUFFERS.offer(this);
+		}
+	}
+
 	private ImageHandler() {
 	}
 }
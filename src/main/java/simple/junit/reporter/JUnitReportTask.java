@@ -1,14 +1,152 @@
 package simple.junit.reporter;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
 import org.apache.tools.ant.taskdefs.optional.junit.XMLResultAggregator;
+import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
+import org.apache.tools.ant.util.DOMElementWriter;
+import org.apache.tools.ant.util.FileUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.RECORDING_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_PATH_ATTRIBUTE;
+import static simple.junit.reporter.XmlJUnitResultFormatter.TOTALS;
+import static simple.junit.utils.Closeables.closeQuietly;
+import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.isNullOrEmpty;
 
 public class JUnitReportTask extends XMLResultAggregator {
 
+	private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+	private static final String CONTENT_HASH_ALGORITHM = "SHA-1";
+
+	/** Document builders are not thread-safe, so each parser gets its own. */
+	private static final ThreadLocal<DocumentBuilder> PARSERS = new ThreadLocal<DocumentBuilder>() {
+		@Override
+		protected DocumentBuilder initialValue() {
+			return documentBuilder();
+		}
+	};
+
+	private static DocumentBuilder documentBuilder() {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		} catch (Exception exc) {
+			throw new BuildException(exc);
+		}
+	}
+
 	private Path classpath;
 
+	private boolean writeAggregate = true;
+
+	private File historyDir;
+
+	private int historyRuns = 30;
+
+	private String historyHash = "";
+
+	private int slowest = 20;
+
+	private final List<String> contentHashes = new ArrayList<String>();
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Merges the result files and hands the merged document straight to the
+	 * report transformers instead of having them read the aggregate file back.
+	 */
+	@Override
+	public void execute() throws BuildException {
+		Document document = createDocument().getOwnerDocument();
+		if (writeAggregate)
+			writeAggregate(document);
+		if (historyDir != null)
+			compareWithHistory(document.getDocumentElement());
+		if (slowest > 0)
+			new TimingSummary(slowest)
+					.summarize(document.getDocumentElement());
+		for (Object transformer : transformers) {
+			((AggregateTransformer) transformer).setXmlDocument(document);
+			((AggregateTransformer) transformer).transform();
+		}
+	}
+
+	private void writeAggregate(Document document) {
+		File destinationFile = getDestinationFile();
+		try {
+			writeDOMTree(document, destinationFile);
+		} catch (IOException e) {
+			throw new BuildException(concat("Unable to write test aggregate to '",
+					destinationFile, "'"), e);
+		}
+	}
+
+	/**
+	 * Adds how the results compare with the previous runs of the history to
+	 * the merged ones, then appends them to it unless its last run was merged
+	 * from the same result files. This comes after writing the aggregate
+	 * file, which remains a plain merge of the result files.
+	 */
+	private void compareWithHistory(Element testsuites) {
+		try {
+			ResultStore store = ResultStore.open(historyDir);
+			try {
+				new HistoryComparison(store, historyRuns).compare(testsuites);
+				historyHash = historyHash(testsuites);
+				int run = store.append(testsuites, System.currentTimeMillis(),
+						contentHashes);
+				if (run == ResultStore.NONE)
+					log(concat("The results are already the last run of '",
+							historyDir, "'"), Project.MSG_VERBOSE);
+				else
+					log(concat("Stored the results as run ", run, " of '",
+							historyDir, "'"), Project.MSG_VERBOSE);
+			} finally {
+				store.close();
+			}
+		} catch (IOException e) {
+			throw new BuildException(concat("Unable to store the results in '",
+					historyDir, "'"), e);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public AggregateTransformer createReport() {
@@ -18,6 +156,330 @@ public class JUnitReportTask extends XMLResultAggregator {
 		return transformer;
 	}
 
+	/**
+	 * Parses the result files on up to {@code threads} threads and merges
+	 * them in file order, so the merged document does not depend on which
+	 * parse finishes first.
+	 */
+	@Override
+	protected Element createDocument() {
+		Document document = documentBuilder().newDocument();
+		Element rootElement = document.createElement(TESTSUITES);
+		document.appendChild(rootElement);
+		generatedId = 0;
+		contentHashes.clear();
+		File[] files = getFiles();
+		ExecutorService parsers = parsers(files.length);
+		try {
+			Queue<Future<ResultFile>> parsed = new LinkedList<Future<ResultFile>>();
+			int next = 0;
+			while (next < files.length || !parsed.isEmpty()) {
+				// keep a bounded window of parses ahead of the merge
+				while (next < files.length && parsed.size() < threads * 2)
+					parsed.add(parsers.submit(new ResultFileParser(files[next++])));
+				ResultFile resultFile = result(parsed.remove());
+				if (resultFile == null)
+					continue;
+				addTestSuite(rootElement, resultFile.testsuite);
+				contentHashes.add(resultFile.contentHash);
+				generatedId++;
+			}
+		} finally {
+			parsers.shutdownNow();
+		}
+		return rootElement;
+	}
+
+	private ExecutorService parsers(int fileCount) {
+		if (threads < 1)
+			throw new BuildException("The number of threads should be at least 1");
+		return Executors.newFixedThreadPool(Math.min(threads,
+				Math.max(fileCount, 1)), new DaemonThreadFactory(
+				"result-parser"));
+	}
+
+	private static ResultFile result(Future<ResultFile> parsed) {
+		try {
+			return parsed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BuildException(e);
+		} catch (ExecutionException e) {
+			throw new BuildException(e.getCause());
+		}
+	}
+
+	private final class ResultFileParser implements Callable<ResultFile> {
+
+		private final File file;
+
+		ResultFileParser(File file) {
+			this.file = file;
+		}
+
+		public ResultFile call() {
+			MessageDigest digest = contentDigest();
+			Element testsuite = parse(PARSERS.get(), file, digest);
+			if (testsuite == null)
+				return null;
+			resolveFilePaths(testsuite, file.getParentFile());
+			return new ResultFile(testsuite, new BigInteger(1, digest.digest())
+					.toString(16));
+		}
+	}
+
+	private static final class ResultFile {
+
+		final Element testsuite;
+
+		final String contentHash;
+
+		ResultFile(Element testsuite, String contentHash) {
+			this.testsuite = testsuite;
+			this.contentHash = contentHash;
+		}
+	}
+
+	/**
+	 * Hashes the history element the comparison added, which changes only
+	 * when what the report shows of the history does, unlike the runs of the
+	 * history.
+	 */
+	private static String historyHash(Element testsuites) throws IOException {
+		Element history = NativeReportRenderer.child(testsuites,
+				HistoryComparison.HISTORY);
+		if (history == null)
+			return "";
+		StringWriter writer = new StringWriter();
+		new DOMElementWriter().write(history, writer, 0, "");
+		return new BigInteger(1, contentDigest().digest(
+				writer.toString().getBytes("UTF-8"))).toString(16);
+	}
+
+	private static MessageDigest contentDigest() {
+		try {
+			return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new BuildException(e);
+		}
+	}
+
+	/**
+	 * Returns the result files of the filesets, binary and compressed ones
+	 * included.
+	 */
+	@Override
+	protected File[] getFiles() {
+		List<File> files = new ArrayList<File>();
+		for (Object fileset : filesets) {
+			DirectoryScanner scanner = ((FileSet) fileset)
+					.getDirectoryScanner(getProject());
+			scanner.scan();
+			for (String name : scanner.getIncludedFiles())
+				if (isResultFile(name))
+					files.add(getProject().resolveFile(
+							new File(scanner.getBasedir(), name).getPath()));
+		}
+		return files.toArray(new File[files.size()]);
+	}
+
+	private static boolean isResultFile(String name) {
+		if (name.endsWith(".gz"))
+			name = name.substring(0, name.length() - ".gz".length());
+		return name.endsWith(".xml")
+				|| name.endsWith(XmlJUnitResultFormatter.BINARY_EXTENSION);
+	}
+
+	/**
+	 * Decompresses the given stream if it holds gzip data, whatever the name
+	 * of the file it was opened on. The returned stream supports marks.
+	 */
+	static InputStream uncompressed(InputStream in) throws IOException {
+		InputStream buffered = new BufferedInputStream(in);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+		if (first == (GZIPInputStream.GZIP_MAGIC & 0xff)
+				&& second == GZIPInputStream.GZIP_MAGIC >>> 8)
+			return new BufferedInputStream(new GZIPInputStream(buffered));
+		return buffered;
+	}
+
+	private Element parse(DocumentBuilder builder, File file,
+			MessageDigest digest) {
+		log(concat("Parsing file: '", file, "'"), Project.MSG_VERBOSE);
+		if (file.length() == 0) {
+			log(concat("the file ", file,
+					" is empty.\nThis can be caused by the test JVM exiting",
+					" unexpectedly"), Project.MSG_WARN);
+			return null;
+		}
+		InputStream in = null;
+		try {
+			// the content hash is taken while parsing to read each file once
+			in = uncompressed(new DigestInputStream(
+					new FileInputStream(file), digest));
+			Element testsuite = BinaryElementReader.isBinary(in) ? parseBinary(
+					builder, file, in) : builder.parse(in,
+					FILE_UTILS.toURI(file.getAbsolutePath()))
+					.getDocumentElement();
+			if (testsuite != null && TESTSUITE.equals(testsuite.getNodeName()))
+				return testsuite;
+			log(concat("the file ", file,
+					" is not a valid testsuite XML document"), Project.MSG_WARN);
+		} catch (SAXException e) {
+			log(concat("The file ", file,
+					" is not a valid XML document. It is possibly corrupted."),
+					Project.MSG_WARN);
+			log(concat("Error while parsing: ", e.getMessage()),
+					Project.MSG_DEBUG);
+		} catch (IOException e) {
+			log(concat("Error while accessing file ", file, ": ",
+					e.getMessage()), Project.MSG_ERR);
+		} finally {
+			closeQuietly(in);
+		}
+		return null;
+	}
+
+	private Element parseBinary(DocumentBuilder builder, File file,
+			InputStream in) throws IOException {
+		BinaryElementReader reader = new BinaryElementReader(in);
+		Element testsuite = reader.read(builder.newDocument());
+		if (reader.complete() || testsuite == null)
+			return testsuite;
+		log(concat("the file ", file, " is truncated.\nThis can be caused",
+				" by the test JVM exiting unexpectedly"), Project.MSG_WARN);
+		if (!hasStreamedTotals(testsuite))
+			ResultCollector.addRunningTotals(testsuite);
+		return testsuite;
+	}
+
+	/**
+	 * Makes the paths of the screenshots, recordings and outputs saved with a
+	 * result file absolute, since they are relative to its directory.
+	 */
+	private void resolveFilePaths(Element testsuite, File resultDir) {
+		resolveFilePaths(testsuite, resultDir, SCREENSHOT_ELEMENT);
+		resolveFilePaths(testsuite, resultDir, RECORDING_ELEMENT);
+		resolveFilePaths(testsuite, resultDir, SYSTEM_OUT);
+		resolveFilePaths(testsuite, resultDir, SYSTEM_ERR);
+	}
+
+	private void resolveFilePaths(Element testsuite, File resultDir,
+			String elementName) {
+		NodeList screenshots = testsuite.getElementsByTagName(elementName);
+		for (int i = 0; i < screenshots.getLength(); i++) {
+			Element screenshot = (Element) screenshots.item(i);
+			String path = screenshot.getAttribute(SCREENSHOT_PATH_ATTRIBUTE);
+			if (isNullOrEmpty(path))
+				continue;
+			File image = new File(path);
+			if (!image.isAbsolute())
+				image = new File(resultDir, path);
+			screenshot.setAttribute(SCREENSHOT_PATH_ATTRIBUTE,
+					image.getAbsolutePath());
+		}
+	}
+
+	@Override
+	protected void addTestSuite(Element root, Element testsuite) {
+		liftStreamedTotals(testsuite);
+		super.addTestSuite(root, testsuite);
+	}
+
+	static void liftStreamedTotals(Element testsuite) {
+		Node child = lastElement(testsuite);
+		if (child == null || !TOTALS.equals(child.getNodeName()))
+			return;
+		NamedNodeMap totals = child.getAttributes();
+		for (int i = 0; i < totals.getLength(); i++) {
+			Attr total = (Attr) totals.item(i);
+			testsuite.setAttribute(total.getName(), total.getValue());
+		}
+		testsuite.removeChild(child);
+	}
+
+	private static boolean hasStreamedTotals(Element testsuite) {
+		Node child = lastElement(testsuite);
+		return child != null && TOTALS.equals(child.getNodeName());
+	}
+
+	private static Node lastElement(Element parent) {
+		Node child = parent.getLastChild();
+		while (child != null && !(child instanceof Element))
+			child = child.getPreviousSibling();
+		return child;
+	}
+
+	/**
+	 * Sets whether the merged results are also written to the aggregate file
+	 * ({@code TESTS-TestSuites.xml} by default). Defaults to {@code true}.
+	 */
+	public void setAggregate(boolean writeAggregate) {
+		this.writeAggregate = writeAggregate;
+	}
+
+	/**
+	 * Sets the directory of the {@link ResultStore} the merged results of
+	 * each run are appended to. Results are not stored by default.
+	 */
+	public void setHistory(File historyDir) {
+		this.historyDir = historyDir;
+	}
+
+	/**
+	 * Sets the number of previous runs of the history the results are
+	 * compared with, to find flaky tests and tests which got slower.
+	 * Defaults to 30.
+	 */
+	public void setHistoryRuns(int historyRuns) {
+		this.historyRuns = historyRuns;
+	}
+
+	/**
+	 * Sets how many of the slowest tests and suites the reports list, along
+	 * with the time of each package. Defaults to 20, and 0 leaves the timing
+	 * out of the reports.
+	 */
+	public void setSlowest(int slowest) {
+		this.slowest = slowest;
+	}
+
+	/**
+	 * Sets the number of threads parsing result files and rendering the
+	 * packages of native frames reports. Defaults to the number of available
+	 * processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	int threads() {
+		return threads;
+	}
+
+	int slowest() {
+		return slowest;
+	}
+
+	/**
+	 * Returns the hash of how the merged results compare with the history,
+	 * or an empty string when there is no history.
+	 */
+	String historyHash() {
+		return historyHash;
+	}
+
+	/**
+	 * Returns the content hashes of the merged result files, in the order of
+	 * their test suites in the merged results.
+	 */
+	List<String> contentHashes() {
+		return contentHashes;
+	}
+
 	public void setClasspath(Path classpath) {
 		createClasspath().append(classpath);
 	}
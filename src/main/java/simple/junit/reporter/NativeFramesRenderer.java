@@ -0,0 +1,712 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_CLASSNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ERRORS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_FAILURES;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TESTS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.HOSTNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.SYSTEM_ERR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.SYSTEM_OUT;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TIMESTAMP;
+import static simple.junit.reporter.XmlJUnitResultFormatter.OUTPUT_PATH_ATTRIBUTE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.BuildException;
+
+import org.w3c.dom.Element;
+
+/**
+ * Renders the frames report laid out by {@code junit-frames.xsl}: the
+ * overview pages at the root of the report directory, and the package and
+ * class pages under a directory per package. Packages do not share any page,
+ * so they are rendered on a pool of threads while the overview pages are
+ * written.
+ */
+final class NativeFramesRenderer extends NativeReportRenderer {
+
+	private static final String STYLESHEET = "body {\n"
+			+ "font:normal 68% verdana,arial,helvetica;\n"
+			+ "color:#000000;\n" + "}\n"
+			+ "table tr td, table tr th {\n" + "font-size: 68%;\n" + "}\n"
+			+ "table.details tr th{\n" + "font-weight: bold;\n"
+			+ "text-align:left;\n" + "background:#a6caf0;\n" + "}\n"
+			+ "table.details tr td{\n" + "background:#eeeee0;\n" + "}\n"
+			+ "\n" + "p {\n" + "line-height:1.5em;\n"
+			+ "margin-top:0.5em;\n" + "margin-bottom:1.0em;\n" + "}\n"
+			+ "h1 {\n" + "margin: 0px 0px 5px; font: 165% verdana,arial,helvetica\n"
+			+ "}\n" + "h2 {\n"
+			+ "margin-top: 1em; margin-bottom: 0.5em;\n"
+			+ "font: bold 125% verdana,arial,helvetica\n" + "}\n"
+			+ "h3 {\n" + "margin-bottom: 0.5em;\n"
+			+ "font: bold 115% verdana,arial,helvetica\n" + "}\n"
+			+ "h4 {\n" + "margin-bottom: 0.5em;\n"
+			+ "font: bold 100% verdana,arial,helvetica\n" + "}\n"
+			+ "h5 {\n" + "margin-bottom: 0.5em;\n"
+			+ "font: bold 100% verdana,arial,helvetica\n" + "}\n"
+			+ "h6 {\n" + "margin-bottom: 0.5em;\n"
+			+ "font: bold 100% verdana,arial,helvetica\n" + "}\n"
+			+ ".Error {\n" + "font-weight:bold;\n" + "color:red;\n" + "}\n"
+			+ ".Failure {\n" + "font-weight:bold; color:purple;\n" + "}\n"
+			+ ".Properties {\n" + "text-align:right;\n" + "}\n";
+
+	private static final String DISPLAY_PROPERTIES = "\n"
+			+ "function displayProperties (name) {\n"
+			+ "  var win = window.open('','JUnitSystemProperties','scrollbars=1,resizable=1');\n"
+			+ "  var doc = win.document;\n"
+			+ "  doc.open();\n"
+			+ "  doc.write(\"<html><head><title>Properties of \" + name + \"</title>\");\n"
+			+ "  doc.write(\"<style type=\\\"text/css\\\">\");\n"
+			+ "  doc.write(\"body {font:normal 68% verdana,arial,helvetica; color:#000000; }\");\n"
+			+ "  doc.write(\"table tr td, table tr th { font-size: 68%; }\");\n"
+			+ "  doc.write(\"table.properties { border-collapse:collapse; border-left:solid 1 #cccccc; border-top:solid 1 #cccccc; padding:5px; }\");\n"
+			+ "  doc.write(\"table.properties th { text-align:left; border-right:solid 1 #cccccc; border-bottom:solid 1 #cccccc; background-color:#eeeeee; }\");\n"
+			+ "  doc.write(\"table.properties td { font:normal; text-align:left; border-right:solid 1 #cccccc; border-bottom:solid 1 #cccccc; background-color:#fffffff; }\");\n"
+			+ "  doc.write(\"h3 { margin-bottom: 0.5em; font: bold 115% verdana,arial,helvetica }\");\n"
+			+ "  doc.write(\"</style>\");\n"
+			+ "  doc.write(\"</head><body>\");\n"
+			+ "  doc.write(\"<h3>Properties of \" + name + \"</h3>\");\n"
+			+ "  doc.write(\"<div align=\\\"right\\\"><a href=\\\"javascript:window.close();\\\">Close</a></div>\");\n"
+			+ "  doc.write(\"<table class='properties'>\");\n"
+			+ "  doc.write(\"<tr><th>Name</th><th>Value</th></tr>\");\n"
+			+ "  for (prop in TestCases[name]) {\n"
+			+ "    doc.write(\"<tr><th>\" + prop + \"</th><td>\" + TestCases[name][prop] + \"</td></tr>\");\n"
+			+ "  }\n" + "  doc.write(\"</table>\");\n"
+			+ "  doc.write(\"</body></html>\");\n" + "  doc.close();\n"
+			+ "  win.focus();\n" + "}\n";
+
+	private final Set<String> unchangedSuites;
+
+	private final Set<String> unchangedPackages;
+
+	private final int threads;
+
+	NativeFramesRenderer(Element testsuites, File toDir,
+			Set<String> unchangedSuites, Set<String> unchangedPackages,
+			int threads) {
+		super(testsuites, toDir);
+		this.unchangedSuites = unchangedSuites;
+		this.unchangedPackages = unchangedPackages;
+		this.threads = threads;
+	}
+
+	@Override
+	void render() throws IOException {
+		ExecutorService renderers = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threads, packageNames().size())),
+				new DaemonThreadFactory("report-renderer"));
+		try {
+			List<Future<Void>> packages = new ArrayList<Future<Void>>();
+			for (String packageName : packageNames())
+				packages.add(renderers.submit(new PackageRenderer(packageName)));
+			writeIndex();
+			writeText("stylesheet.css", STYLESHEET);
+			writeOverviewSummary();
+			writeOverviewFrame();
+			writeAllClassesFrame();
+			writeAllTests(ALL, "all-tests.html", "All Tests");
+			writeAllTests(FAILS, "alltests-fails.html", "All Failures");
+			writeAllTests(ERRORS, "alltests-errors.html", "All Errors");
+			if (history() != null)
+				writeHistory();
+			if (timing() != null)
+				writeTiming();
+			for (Future<Void> rendered : packages)
+				await(rendered);
+		} finally {
+			renderers.shutdownNow();
+		}
+	}
+
+	private static void await(Future<Void> rendered) throws IOException {
+		try {
+			rendered.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new BuildException(e.getCause());
+		}
+	}
+
+	private final class PackageRenderer implements Callable<Void> {
+
+		private final String packageName;
+
+		PackageRenderer(String packageName) {
+			this.packageName = packageName;
+		}
+
+		public Void call() throws IOException {
+			renderPackage(packageName);
+			return null;
+		}
+	}
+
+	/** Renders the package and class pages of a single package. */
+	void renderPackage(String packageName) throws IOException {
+		List<Element> suites = suites(packageName);
+		String packageDir = packageName.length() == 0 ? "." : packageDir(packageName);
+		if (!unchangedPackages.contains(packageName)) {
+			writePackageFrame(packageName, packageDir, suites);
+			writePackageSummary(packageName, packageDir, suites);
+		}
+		for (Element suite : suites)
+			if (!unchangedSuites.contains(suite.getAttribute("id")))
+				writeClassPages(suite, packageDir);
+	}
+
+	private void writeClassPages(Element suite, String packageDir)
+			throws IOException {
+		String pageName = pageName(suite);
+		writeClassDetails(suite, ALL, concat(packageDir, pageName, ".html"));
+		String systemOut = childText(suite, SYSTEM_OUT);
+		if (systemOut.length() != 0)
+			writeText(concat(packageDir, pageName, "-out.txt"), systemOut);
+		String systemErr = childText(suite, SYSTEM_ERR);
+		if (systemErr.length() != 0)
+			writeText(concat(packageDir, pageName, "-err.txt"), systemErr);
+		if (hasFailures(suite))
+			writeClassDetails(suite, FAILS,
+					concat(packageDir, pageName, "-fails.html"));
+		if (hasErrors(suite))
+			writeClassDetails(suite, ERRORS,
+					concat(packageDir, pageName, "-errors.html"));
+	}
+
+	/**
+	 * Tells whether a suite has output to link to, either as text or saved
+	 * beside its result file.
+	 */
+	private static boolean hasOutput(Element suite, String type) {
+		Element output = child(suite, type);
+		if (output == null)
+			return false;
+		return output.getTextContent().length() != 0
+				|| output.hasAttribute(OUTPUT_PATH_ATTRIBUTE);
+	}
+
+	private static String concat(String dir, String pageName, String suffix) {
+		return dir + "/" + pageName + suffix;
+	}
+
+	private void writeIndex() throws IOException {
+		HtmlWriter html = page("index.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results.");
+			html.end("head");
+			html.start("frameset", "cols", "20%,80%");
+			html.start("frameset", "rows", "30%,70%");
+			html.empty("frame", "src", "overview-frame.html", "name",
+					"packageListFrame");
+			html.empty("frame", "src", "allclasses-frame.html", "name",
+					"classListFrame");
+			html.end("frameset");
+			html.empty("frame", "src", "overview-summary.html", "name",
+					"classFrame");
+			html.start("noframes");
+			html.element("h2", "Frame Alert");
+			html.element("p", "This document is designed to be viewed using "
+					+ "the frames feature. If you see this message, you are "
+					+ "using a non-frame-capable web client.");
+			html.end("noframes");
+			html.end("frameset");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writeOverviewSummary() throws IOException {
+		HtmlWriter html = page("overview-summary.html");
+		try {
+			List<Element> suites = suites();
+			double tests = sum(suites, ATTR_TESTS);
+			double errors = sum(suites, ATTR_ERRORS);
+			double failures = sum(suites, ATTR_FAILURES);
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results: Summary");
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body", "onload",
+					"open('allclasses-frame.html','classListFrame')");
+			writePageHeader(html);
+			html.element("h2", "Summary");
+			startDetailsTable(html);
+			html.start("tr", "valign", "top");
+			html.element("th", "Tests");
+			html.element("th", "Failures");
+			html.element("th", "Errors");
+			html.element("th", "Success rate");
+			html.element("th", "Time");
+			html.end("tr");
+			html.start("tr", "valign", "top", "class",
+					status(errors, failures));
+			html.start("td");
+			html.element("a", number(tests), "title", "Display all tests",
+					"href", "all-tests.html");
+			html.end("td").start("td");
+			html.element("a", number(failures), "title",
+					"Display all failures", "href", "alltests-fails.html");
+			html.end("td").start("td");
+			html.element("a", number(errors), "title", "Display all errors",
+					"href", "alltests-errors.html");
+			html.end("td");
+			html.element("td", percent((tests - failures - errors) / tests));
+			html.element("td", time(sum(suites, ATTR_TIME)));
+			html.end("tr");
+			html.end("table");
+			html.start("table", "border", "0", "width", "95%");
+			html.start("tr").start("td", "style", "text-align: justify;");
+			html.text("Note: ").element("em", "failures");
+			html.text(" are anticipated and checked for with assertions while ");
+			html.element("em", "errors").text(" are unanticipated.");
+			html.end("td").end("tr").end("table");
+			if (history() != null)
+				writeHistorySummary(html, history(), "history.html");
+			if (timing() != null)
+				writeTimingSummary(html, timing());
+			html.element("h2", "Packages");
+			startDetailsTable(html);
+			writeTestsuiteHeader(html);
+			for (String packageName : sortedPackages()) {
+				List<Element> inPackage = suites(packageName);
+				double packageErrors = sum(inPackage, ATTR_ERRORS);
+				double packageFailures = sum(inPackage, ATTR_FAILURES);
+				html.start("tr", "valign", "top", "class",
+						status(packageErrors, packageFailures));
+				html.start("td");
+				html.element("a", displayName(packageName), "href", "./"
+						+ packageDir(packageName) + "/package-summary.html");
+				html.end("td");
+				html.element("td", number(sum(inPackage, ATTR_TESTS)));
+				html.element("td", number(packageErrors));
+				html.element("td", number(packageFailures));
+				html.element("td", time(sum(inPackage, ATTR_TIME)));
+				html.element("td", first(inPackage, TIMESTAMP));
+				html.element("td", first(inPackage, HOSTNAME));
+				html.end("tr");
+			}
+			html.end("table");
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private static String status(double errors, double failures) {
+		if (errors > 0)
+			return "Error";
+		if (failures > 0)
+			return "Failure";
+		return "Pass";
+	}
+
+	private void writeOverviewFrame() throws IOException {
+		HtmlWriter html = page("overview-frame.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "All Unit Test Packages");
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body");
+			html.start("h2");
+			html.element("a", "Home", "href", "overview-summary.html",
+					"target", "classFrame");
+			html.end("h2");
+			html.element("h2", "Packages");
+			html.start("table", "width", "100%");
+			for (String packageName : sortedPackages()) {
+				html.start("tr").start("td", "nowrap", "nowrap");
+				html.element("a", displayName(packageName), "href", "./"
+						+ packageDir(packageName) + "/package-summary.html",
+						"target", "classFrame");
+				html.end("td").end("tr");
+			}
+			html.end("table");
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writeAllClassesFrame() throws IOException {
+		HtmlWriter html = page("allclasses-frame.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "All Unit Test Classes");
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body");
+			html.element("h2", "Classes");
+			html.start("table", "width", "100%");
+			for (Element suite : sortedByName(suites())) {
+				html.start("tr").start("td", "nowrap", "nowrap");
+				html.element("a", suite.getAttribute(ATTR_NAME), "target",
+						"classFrame", "href", classHref(suite));
+				html.end("td").end("tr");
+			}
+			html.end("table");
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	/** Returns the link to the page of a suite from the report root. */
+	private static String classHref(Element suite) {
+		String packageName = packageName(suite);
+		String page = pageName(suite) + ".html";
+		return packageName.length() == 0 ? page : packageDir(packageName)
+				+ "/" + page;
+	}
+
+	private void writeAllTests(String type, String fileName, String title)
+			throws IOException {
+		HtmlWriter html = page(fileName);
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results: " + title);
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body", "onload",
+					"open('allclasses-frame.html','classListFrame')");
+			writePageHeader(html);
+			html.element("h2", title);
+			startDetailsTable(html);
+			writeTestcaseHeader(html, true);
+			writeSuiteError(html, testsuites());
+			for (Element testcase : testcases(testsuites(), type))
+				writeTestcase(html, testcase, true, "");
+			html.end("table");
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writeHistory() throws IOException {
+		HtmlWriter html = page("history.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results: History");
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body", "onload",
+					"open('allclasses-frame.html','classListFrame')");
+			writePageHeader(html);
+			html.element("h2", "History");
+			writeHistoryDetails(html, history());
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writeTiming() throws IOException {
+		HtmlWriter html = page("timing.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results: Timing");
+			writeStylesheetLink(html, "");
+			html.end("head");
+			html.start("body", "onload",
+					"open('allclasses-frame.html','classListFrame')");
+			writePageHeader(html);
+			html.element("h2", "Timing");
+			writeTimingDetails(html, timing());
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private static void writeTimingSummary(HtmlWriter html, Element timing)
+			throws IOException {
+		html.element("h2", "Timing");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Slowest test");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.element("th", "Slowest package");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.end("tr");
+		html.start("tr", "valign", "top");
+		Element test = child(timing, TimingSummary.TEST);
+		if (test != null) {
+			html.start("td");
+			html.element("a", test.getAttribute(ATTR_CLASSNAME) + "."
+					+ test.getAttribute(ATTR_NAME), "title",
+					"Display the slowest tests", "href", "timing.html");
+			html.end("td");
+			html.element("td", time(number(test, ATTR_TIME)));
+		}
+		Element slowestPackage = child(timing, TimingSummary.PACKAGE);
+		if (slowestPackage != null) {
+			html.start("td");
+			html.element("a", displayName(slowestPackage
+					.getAttribute(ATTR_NAME)), "title",
+					"Display the time of each package", "href", "timing.html");
+			html.end("td");
+			html.element("td", time(number(slowestPackage, ATTR_TIME)));
+		}
+		html.end("tr");
+		html.end("table");
+	}
+
+	private void writeClassDetails(Element suite, String type, String path)
+			throws IOException {
+		HtmlWriter html = page(path);
+		try {
+			String packageName = packageName(suite);
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results: " + className(suite));
+			writeStylesheetLink(html, packageName);
+			html.start("script", "type", "text/javascript", "language",
+					"JavaScript");
+			html.raw("\nvar TestCases = new Array();\nvar cur;\n");
+			writeProperties(html, suite);
+			html.end("script");
+			html.start("script", "type", "text/javascript", "language",
+					"JavaScript");
+			html.raw(DISPLAY_PROPERTIES);
+			html.end("script");
+			html.end("head");
+			html.start("body");
+			writePageHeader(html);
+			html.element("h3", "Class " + className(suite));
+			startDetailsTable(html);
+			writeTestsuiteHeader(html);
+			writeSuite(html, suite);
+			html.end("table");
+			if (FAILS.equals(type))
+				html.element("h2", "Failures");
+			else if (ERRORS.equals(type))
+				html.element("h2", "Errors");
+			else
+				html.element("h2", "Tests");
+			startDetailsTable(html);
+			writeTestcaseHeader(html, false);
+			writeSuiteError(html, suite);
+			String imageDir = packageName.length() == 0 ? "." : packageDir(packageName);
+			for (Element testcase : testcases(suite, type))
+				writeTestcase(html, testcase, false, imageDir);
+			html.end("table");
+			html.start("div", "class", "Properties");
+			html.element("a", "Properties \u00bb", "href",
+					displayPropertiesLink(suite));
+			html.end("div");
+			if (hasOutput(suite, SYSTEM_OUT)) {
+				html.start("div", "class", "Properties");
+				html.element("a", "System.out \u00bb", "href", "./"
+						+ pageName(suite) + "-out.txt");
+				html.end("div");
+			}
+			if (hasOutput(suite, SYSTEM_ERR)) {
+				html.start("div", "class", "Properties");
+				html.element("a", "System.err \u00bb", "href", "./"
+						+ pageName(suite) + "-err.txt");
+				html.end("div");
+			}
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writePackageFrame(String packageName, String packageDir,
+			List<Element> suites) throws IOException {
+		HtmlWriter html = page(packageDir + "/package-frame.html");
+		try {
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Classes: " + packageName);
+			writeStylesheetLink(html, packageName);
+			html.end("head");
+			html.start("body");
+			html.start("table", "width", "100%");
+			html.start("tr").start("td", "nowrap", "nowrap").start("h2");
+			html.element("a", displayName(packageName), "href",
+					"package-summary.html", "target", "classFrame");
+			html.end("h2").end("td").end("tr");
+			html.end("table");
+			html.element("h2", "Classes");
+			html.start("table", "width", "100%");
+			for (Element suite : sortedByName(suites)) {
+				html.start("tr").start("td", "nowrap", "nowrap");
+				html.element("a", suite.getAttribute(ATTR_NAME), "href",
+						pageName(suite) + ".html", "target", "classFrame");
+				html.end("td").end("tr");
+			}
+			html.end("table");
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writePackageSummary(String packageName, String packageDir,
+			List<Element> suites) throws IOException {
+		HtmlWriter html = page(packageDir + "/package-summary.html");
+		try {
+			html.start("html");
+			startHead(html);
+			writeStylesheetLink(html, packageName);
+			html.end("head");
+			html.start("body", "onload",
+					"open('package-frame.html','classListFrame')");
+			writePageHeader(html);
+			html.element("h3", "Package " + packageName);
+			if (!suites.isEmpty()) {
+				html.element("h2", "Classes");
+				html.start("p");
+				startDetailsTable(html);
+				writeTestsuiteHeader(html);
+				for (Element suite : sortedByName(suites))
+					writeSuite(html, suite);
+				html.end("table");
+				html.end("p");
+			}
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private void writeSuite(HtmlWriter html, Element suite) throws IOException {
+		String page = pageName(suite);
+		html.start("tr", "valign", "top", "class", status(
+				number(suite, ATTR_ERRORS), number(suite, ATTR_FAILURES)));
+		html.start("td");
+		html.element("a", suite.getAttribute(ATTR_NAME), "title",
+				"Display all tests", "href", page + ".html");
+		html.end("td").start("td");
+		html.element("a", suite.getAttribute(ATTR_TESTS), "title",
+				"Display all tests", "href", page + ".html");
+		html.end("td").start("td");
+		if (number(suite, ATTR_ERRORS) != 0)
+			html.element("a", suite.getAttribute(ATTR_ERRORS), "title",
+					"Display only errors", "href", page + "-errors.html");
+		else
+			html.text(suite.getAttribute(ATTR_ERRORS));
+		html.end("td").start("td");
+		if (number(suite, ATTR_FAILURES) != 0)
+			html.element("a", suite.getAttribute(ATTR_FAILURES), "title",
+					"Display only failures", "href", page + "-fails.html");
+		else
+			html.text(suite.getAttribute(ATTR_FAILURES));
+		html.end("td");
+		html.element("td", time(number(suite, ATTR_TIME)));
+		html.element("td", suite.getAttribute(TIMESTAMP));
+		html.element("td", suite.getAttribute(HOSTNAME));
+		html.end("tr");
+	}
+
+	private void writeTestcase(HtmlWriter html, Element testcase,
+			boolean showClass, String imageDir) throws IOException {
+		Element suite = (Element) testcase.getParentNode();
+		String status = "TableRowColor";
+		if (child(testcase, ERROR) != null)
+			status = "Error";
+		else if (child(testcase, FAILURE) != null)
+			status = "Failure";
+		html.start("tr", "valign", "top", "class", status);
+		String classHref = classHref(suite);
+		if (showClass) {
+			html.start("td");
+			html.element("a", suite.getAttribute(ATTR_NAME), "href", classHref);
+			html.end("td");
+		}
+		String name = testcase.getAttribute(ATTR_NAME);
+		html.start("td");
+		html.start("a", "name", name).end("a");
+		if (showClass)
+			html.element("a", name, "href", classHref + "#" + name);
+		else
+			html.text(name);
+		html.end("td");
+		writeTestcaseResult(html, testcase, imageDir);
+		html.end("tr");
+	}
+
+	@Override
+	void writeStackTrace(HtmlWriter html, String stackTrace)
+			throws IOException {
+		html.empty("br").empty("br");
+		html.start("code");
+		writeLines(html, stackTrace);
+		html.end("code");
+	}
+
+	private static void writeStylesheetLink(HtmlWriter html, String packageName)
+			throws IOException {
+		StringBuilder href = new StringBuilder();
+		if (packageName.length() != 0)
+			for (int i = 0; i <= countDots(packageName); i++)
+				href.append("../");
+		href.append("stylesheet.css");
+		html.empty("link", "rel", "stylesheet", "type", "text/css", "title",
+				"Style", "href", href.toString());
+	}
+
+	private static int countDots(String packageName) {
+		int dots = 0;
+		for (int i = 0; i < packageName.length(); i++)
+			if (packageName.charAt(i) == '.')
+				dots++;
+		return dots;
+	}
+
+	private static void writePageHeader(HtmlWriter html) throws IOException {
+		html.element("h1", "Unit Test Results");
+		html.start("table", "width", "100%");
+		html.start("tr");
+		html.start("td", "align", "left").end("td");
+		html.element("td", "Designed by Finley Ma.", "align", "right");
+		html.end("tr");
+		html.end("table");
+		html.empty("hr", "size", "1");
+	}
+
+	private HtmlWriter page(String path) throws IOException {
+		return new HtmlWriter(new File(toDir(), path));
+	}
+
+	private void writeText(String path, String text) throws IOException {
+		ReportTransformer.writeText(text, new File(toDir(), path).getPath());
+	}
+}
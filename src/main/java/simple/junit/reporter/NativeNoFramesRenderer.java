@@ -0,0 +1,277 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ERRORS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_FAILURES;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TESTS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.HOSTNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TIMESTAMP;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.w3c.dom.Element;
+
+/**
+ * Renders the single page report laid out by {@code junit-noframes.xsl}.
+ */
+final class NativeNoFramesRenderer extends NativeReportRenderer {
+
+	static final String FILE_NAME = "junit-noframes.html";
+
+	private static final String DOCTYPE = "<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n";
+
+	private static final String STYLE = "\n"
+			+ "body {\n  font:normal 68% verdana,arial,helvetica;\n  color:#000000;\n}\n"
+			+ "table tr td, table tr th {\n  font-size: 68%;\n}\n"
+			+ "table.details tr th{\n  font-weight: bold;\n  text-align:left;\n  background:#a6caf0;\n}\n"
+			+ "table.details tr td{\n  background:#eeeee0;\n}\n\n"
+			+ "p {\n  line-height:1.5em;\n  margin-top:0.5em; margin-bottom:1.0em;\n}\n"
+			+ "h1 {\n  margin: 0px 0px 5px; font: 165% verdana,arial,helvetica\n}\n"
+			+ "h2 {\n  margin-top: 1em; margin-bottom: 0.5em; font: bold 125% verdana,arial,helvetica\n}\n"
+			+ "h3 {\n  margin-bottom: 0.5em; font: bold 115% verdana,arial,helvetica\n}\n"
+			+ "h4 {\n  margin-bottom: 0.5em; font: bold 100% verdana,arial,helvetica\n}\n"
+			+ "h5 {\n  margin-bottom: 0.5em; font: bold 100% verdana,arial,helvetica\n}\n"
+			+ "h6 {\n  margin-bottom: 0.5em; font: bold 100% verdana,arial,helvetica\n}\n"
+			+ ".Error {\n  font-weight:bold; color:red;\n}\n"
+			+ ".Failure {\n  font-weight:bold; color:purple;\n}\n"
+			+ ".Properties {\n  text-align:right;\n}\n";
+
+	private static final String DISPLAY_PROPERTIES = "\n"
+			+ "function displayProperties (name) {\n"
+			+ "  var win = window.open('','JUnitSystemProperties','scrollbars=1,resizable=1');\n"
+			+ "  var doc = win.document;\n"
+			+ "  doc.open();\n"
+			+ "  doc.write(\"<html><head><title>Properties of \" + name + \"</title>\");\n"
+			+ "  doc.write(\"<style>\")\n"
+			+ "  doc.write(\"body {font:normal 68% verdana,arial,helvetica; color:#000000; }\");\n"
+			+ "  doc.write(\"table tr td, table tr th { font-size: 68%; }\");\n"
+			+ "  doc.write(\"table.properties { border-collapse:collapse; border-left:solid 1 #cccccc; border-top:solid 1 #cccccc; padding:5px; }\");\n"
+			+ "  doc.write(\"table.properties th { text-align:left; border-right:solid 1 #cccccc; border-bottom:solid 1 #cccccc; background-color:#eeeeee; }\");\n"
+			+ "  doc.write(\"table.properties td { font:normal; text-align:left; border-right:solid 1 #cccccc; border-bottom:solid 1 #cccccc; background-color:#fffffff; }\");\n"
+			+ "  doc.write(\"h3 { margin-bottom: 0.5em; font: bold 115% verdana,arial,helvetica }\");\n"
+			+ "  doc.write(\"</style>\");\n"
+			+ "  doc.write(\"</head><body>\");\n"
+			+ "  doc.write(\"<h3>Properties of \" + name + \"</h3>\");\n"
+			+ "  doc.write(\"<div align=\\\"right\\\"><a href=\\\"javascript:window.close();\\\">Close</a></div>\");\n"
+			+ "  doc.write(\"<table class='properties'>\");\n"
+			+ "  doc.write(\"<tr><th>Name</th><th>Value</th></tr>\");\n"
+			+ "  for (prop in TestCases[name]) {\n"
+			+ "    doc.write(\"<tr><th>\" + prop + \"</th><td>\" + TestCases[name][prop] + \"</td></tr>\");\n"
+			+ "  }\n" + "  doc.write(\"</table>\");\n"
+			+ "  doc.write(\"</body></html>\");\n" + "  doc.close();\n"
+			+ "  win.focus();\n" + "}\n";
+
+	NativeNoFramesRenderer(Element testsuites, File toDir) {
+		super(testsuites, toDir);
+	}
+
+	@Override
+	void render() throws IOException {
+		HtmlWriter html = new HtmlWriter(new File(toDir(), FILE_NAME));
+		try {
+			html.raw(DOCTYPE);
+			html.start("html");
+			startHead(html);
+			html.element("title", "Unit Test Results");
+			html.start("style", "type", "text/css").raw(STYLE).end("style");
+			html.start("script", "type", "text/javascript", "language",
+					"JavaScript");
+			html.raw("\nvar TestCases = new Array();\nvar cur;\n");
+			for (Element suite : suites())
+				writeProperties(html, suite);
+			html.end("script");
+			html.start("script", "type", "text/javascript", "language",
+					"JavaScript");
+			html.raw(DISPLAY_PROPERTIES);
+			html.end("script");
+			html.end("head");
+			html.start("body");
+			html.start("a", "name", "top").end("a");
+			writePageHeader(html);
+			writeSummary(html);
+			writeSeparator(html);
+			Element history = history();
+			if (history != null) {
+				writeHistorySummary(html, history, null);
+				writeHistoryDetails(html, history);
+				writeSeparator(html);
+			}
+			Element timing = timing();
+			if (timing != null) {
+				html.element("h2", "Timing");
+				writeTimingDetails(html, timing);
+				writeSeparator(html);
+			}
+			writePackageList(html);
+			writeSeparator(html);
+			writePackages(html);
+			writeSeparator(html);
+			writeClasses(html);
+			html.end("body");
+			html.end("html");
+		} finally {
+			html.close();
+		}
+	}
+
+	private static void writeSeparator(HtmlWriter html) throws IOException {
+		html.empty("hr", "size", "1", "width", "95%", "align", "left");
+	}
+
+	private void writeSummary(HtmlWriter html) throws IOException {
+		List<Element> suites = suites();
+		double tests = sum(suites, ATTR_TESTS);
+		double errors = sum(suites, ATTR_ERRORS);
+		double failures = sum(suites, ATTR_FAILURES);
+		html.element("h2", "Summary");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Tests");
+		html.element("th", "Failures");
+		html.element("th", "Errors");
+		html.element("th", "Success rate");
+		html.element("th", "Time");
+		html.end("tr");
+		html.start("tr", "valign", "top", "class", status(errors, failures));
+		html.element("td", number(tests));
+		html.element("td", number(failures));
+		html.element("td", number(errors));
+		html.element("td", percent((tests - failures - errors) / tests));
+		html.element("td", time(sum(suites, ATTR_TIME)));
+		html.end("tr");
+		html.end("table");
+		html.start("table", "border", "0", "width", "95%");
+		html.start("tr").start("td", "style", "text-align: justify;");
+		html.text("Note: ").element("i", "failures");
+		html.text(" are anticipated and checked for with assertions while ");
+		html.element("i", "errors").text(" are unanticipated.");
+		html.end("td").end("tr").end("table");
+	}
+
+	/** Failures take precedence over errors in this layout. */
+	private static String status(double errors, double failures) {
+		if (failures > 0)
+			return "Failure";
+		if (errors > 0)
+			return "Error";
+		return "";
+	}
+
+	private void writePackageList(HtmlWriter html) throws IOException {
+		html.element("h2", "Packages");
+		html.text("Note: package statistics are not computed recursively, "
+				+ "they only sum up all of its testsuites numbers.");
+		startDetailsTable(html);
+		writeTestsuiteHeader(html);
+		for (String packageName : sortedPackages()) {
+			List<Element> inPackage = suites(packageName);
+			double errors = sum(inPackage, ATTR_ERRORS);
+			double failures = sum(inPackage, ATTR_FAILURES);
+			html.start("tr", "valign", "top", "class", status(errors, failures));
+			html.start("td");
+			html.element("a", packageName, "href", "#" + packageName);
+			html.end("td");
+			html.element("td", number(sum(inPackage, ATTR_TESTS)));
+			html.element("td", number(errors));
+			html.element("td", number(failures));
+			html.element("td", time(sum(inPackage, ATTR_TIME)));
+			html.element("td", first(inPackage, TIMESTAMP));
+			html.element("td", first(inPackage, HOSTNAME));
+			html.end("tr");
+		}
+		html.end("table");
+	}
+
+	private void writePackages(HtmlWriter html) throws IOException {
+		for (String packageName : sortedPackages()) {
+			html.start("a", "name", packageName).end("a");
+			html.element("h3", "Package " + packageName);
+			startDetailsTable(html);
+			writeTestsuiteHeader(html);
+			for (Element suite : suites(packageName))
+				writeSuite(html, suite);
+			html.end("table");
+			html.element("a", "Back to top", "href", "#top");
+			html.empty("p").empty("p");
+		}
+	}
+
+	private void writeSuite(HtmlWriter html, Element suite) throws IOException {
+		html.start("tr", "valign", "top", "class", status(
+				number(suite, ATTR_ERRORS), number(suite, ATTR_FAILURES)));
+		html.start("td");
+		html.element("a", suite.getAttribute(ATTR_NAME), "href", "#"
+				+ suite.getAttribute(ATTR_NAME));
+		html.end("td");
+		html.element("td", suite.getAttribute(ATTR_TESTS));
+		html.element("td", suite.getAttribute(ATTR_ERRORS));
+		html.element("td", suite.getAttribute(ATTR_FAILURES));
+		html.element("td", time(number(suite, ATTR_TIME)));
+		html.element("td", suite.getAttribute(TIMESTAMP));
+		html.element("td", suite.getAttribute(HOSTNAME));
+		html.end("tr");
+	}
+
+	private void writeClasses(HtmlWriter html) throws IOException {
+		for (Element suite : sortedByName(suites())) {
+			String name = suite.getAttribute(ATTR_NAME);
+			html.start("a", "name", name).end("a");
+			html.element("h3", "TestCase " + name);
+			startDetailsTable(html);
+			writeTestcaseHeader(html, false);
+			writeSuiteError(html, suite);
+			for (Element testcase : testcases(suite, ALL))
+				writeTestcase(html, testcase);
+			html.end("table");
+			html.start("div", "class", "Properties");
+			html.element("a", "Properties \u00bb", "href",
+					displayPropertiesLink(suite));
+			html.end("div");
+			html.empty("p");
+			html.element("a", "Back to top", "href", "#top");
+		}
+	}
+
+	private void writeTestcase(HtmlWriter html, Element testcase)
+			throws IOException {
+		boolean failed = child(testcase, FAILURE) != null
+				|| child(testcase, ERROR) != null;
+		html.start("tr", "valign", "top", "class", failed ? "Error" : "");
+		html.element("td", testcase.getAttribute(ATTR_NAME));
+		writeTestcaseResult(html, testcase, "");
+		html.end("tr");
+	}
+
+	@Override
+	void writeStackTrace(HtmlWriter html, String stackTrace)
+			throws IOException {
+		html.start("code");
+		html.empty("br").empty("br");
+		writeLines(html, stackTrace);
+		html.end("code");
+	}
+
+	private static void writePageHeader(HtmlWriter html) throws IOException {
+		html.element("h1", "Unit Test Results");
+		html.start("table", "width", "100%");
+		html.start("tr");
+		html.start("td", "align", "left").end("td");
+		html.start("td", "align", "right");
+		html.text("Designed for use with ");
+		html.element("a", "JUnit", "href", "http://www.junit.org");
+		html.text(" and ");
+		html.element("a", "Ant", "href", "http://ant.apache.org/ant");
+		html.text(". Screenshots of failed tests taken by ");
+		html.element("a", "FEST", "href", "http://fest.easytesting.org/swing");
+		html.text(".");
+		html.end("td");
+		html.end("tr");
+		html.end("table");
+		html.empty("hr", "size", "1");
+	}
+}
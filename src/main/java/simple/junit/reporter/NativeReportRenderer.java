@@ -0,0 +1,560 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_CLASSNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ERRORS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_FAILURES;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_MESSAGE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_PACKAGE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TESTS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_VALUE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.HOSTNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.PROPERTIES;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.PROPERTY;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTCASE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTSUITE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TIMESTAMP;
+import static simple.junit.reporter.HistoryComparison.ATTR_DEVIATION;
+import static simple.junit.reporter.HistoryComparison.ATTR_FLIPS;
+import static simple.junit.reporter.HistoryComparison.ATTR_MEDIAN;
+import static simple.junit.reporter.HistoryComparison.ATTR_RUNS;
+import static simple.junit.reporter.HistoryComparison.FLAKY;
+import static simple.junit.reporter.HistoryComparison.HISTORY;
+import static simple.junit.reporter.HistoryComparison.SLOWER;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.RECORDING_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_FILE_ATTRIBUTE;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_PATH_ATTRIBUTE;
+import static simple.junit.reporter.TimingSummary.ATTR_COUNT;
+import static simple.junit.reporter.TimingSummary.ATTR_LABEL;
+import static simple.junit.reporter.TimingSummary.RANGE;
+import static simple.junit.reporter.TimingSummary.TIMING;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Collator;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Renders the merged test results straight into HTML, producing the pages of
+ * the report stylesheets without an XSLT engine. Subclasses lay out the
+ * frames and no-frames reports.
+ */
+abstract class NativeReportRenderer {
+
+	static final String ALL = "all";
+	static final String FAILS = "fails";
+	static final String ERRORS = "errors";
+
+	private static final DecimalFormatSymbols SYMBOLS = new DecimalFormatSymbols(
+			Locale.US);
+
+	private final Element testsuites;
+
+	private final File toDir;
+
+	private final List<Element> suites;
+
+	private final Map<String, List<Element>> packages;
+
+	private final Set<File> writtenImages = Collections
+			.synchronizedSet(new HashSet<File>());
+
+	NativeReportRenderer(Element testsuites, File toDir) {
+		this.testsuites = testsuites;
+		this.toDir = toDir;
+		suites = children(testsuites, TESTSUITE);
+		packages = new LinkedHashMap<String, List<Element>>();
+		for (Element suite : suites) {
+			List<Element> inPackage = packages.get(packageName(suite));
+			if (inPackage == null) {
+				inPackage = new ArrayList<Element>();
+				packages.put(packageName(suite), inPackage);
+			}
+			inPackage.add(suite);
+		}
+	}
+
+	abstract void render() throws IOException;
+
+	final Element testsuites() {
+		return testsuites;
+	}
+
+	final File toDir() {
+		return toDir;
+	}
+
+	final List<Element> suites() {
+		return suites;
+	}
+
+	final List<Element> suites(String packageName) {
+		return packages.get(packageName);
+	}
+
+	/** Returns the package names in the order they first appear. */
+	final Set<String> packageNames() {
+		return packages.keySet();
+	}
+
+	/** Returns the package names in the order the stylesheets list them. */
+	final List<String> sortedPackages() {
+		List<String> names = new ArrayList<String>(packages.keySet());
+		Collections.sort(names, Collator.getInstance());
+		return names;
+	}
+
+	/** Sorts elements by their name attribute, as {@code xsl:sort} does. */
+	static List<Element> sortedByName(List<Element> elements) {
+		List<Element> sorted = new ArrayList<Element>(elements);
+		Collections.sort(sorted, new Comparator<Element>() {
+			private final Collator collator = Collator.getInstance();
+
+			public int compare(Element first, Element second) {
+				return collator.compare(first.getAttribute(ATTR_NAME),
+						second.getAttribute(ATTR_NAME));
+			}
+		});
+		return sorted;
+	}
+
+	static List<Element> children(Element parent, String name) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node child = parent.getFirstChild(); child != null; child = child
+				.getNextSibling())
+			if (child instanceof Element && name.equals(child.getNodeName()))
+				children.add((Element) child);
+		return children;
+	}
+
+	static Element child(Element parent, String name) {
+		List<Element> children = children(parent, name);
+		return children.isEmpty() ? null : children.get(0);
+	}
+
+	static String childText(Element parent, String name) {
+		Element child = child(parent, name);
+		return child == null ? "" : child.getTextContent();
+	}
+
+	static String packageName(Element suite) {
+		return suite.getAttribute(ATTR_PACKAGE);
+	}
+
+	static String packageDir(String packageName) {
+		return packageName.replace('.', '/');
+	}
+
+	static String className(Element suite) {
+		String packageName = packageName(suite);
+		String name = suite.getAttribute(ATTR_NAME);
+		return packageName.length() == 0 ? name : packageName + "." + name;
+	}
+
+	/** Returns the page name of a suite without its extension. */
+	static String pageName(Element suite) {
+		return suite.getAttribute("id") + "_" + suite.getAttribute(ATTR_NAME);
+	}
+
+	static boolean hasFailures(Element suite) {
+		return number(suite, ATTR_FAILURES) > 0;
+	}
+
+	static boolean hasErrors(Element suite) {
+		return number(suite, ATTR_ERRORS) > 0;
+	}
+
+	/** Returns the given test cases of a suite, or of all the suites. */
+	static List<Element> testcases(Element parent, String type) {
+		List<Element> testcases = new ArrayList<Element>();
+		for (Element child : children(parent, TESTSUITE))
+			testcases.addAll(testcases(child, type));
+		for (Element testcase : children(parent, TESTCASE))
+			if (ALL.equals(type)
+					|| (FAILS.equals(type) && child(testcase, FAILURE) != null)
+					|| (ERRORS.equals(type) && child(testcase, ERROR) != null))
+				testcases.add(testcase);
+		return testcases;
+	}
+
+	static double number(Element element, String attribute) {
+		try {
+			return Double.parseDouble(element.getAttribute(attribute));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	static double sum(List<Element> elements, String attribute) {
+		double sum = 0;
+		for (Element element : elements)
+			sum += number(element, attribute);
+		return sum;
+	}
+
+	/** Formats a number the way XPath converts it to a string. */
+	static String number(double value) {
+		if (Double.isNaN(value))
+			return "NaN";
+		if (value == Math.rint(value) && !Double.isInfinite(value))
+			return String.valueOf((long) value);
+		return new DecimalFormat("0.0###############", SYMBOLS).format(value);
+	}
+
+	static String time(double seconds) {
+		return format(seconds, "0.000");
+	}
+
+	static String percent(double ratio) {
+		return format(ratio, "0.00%");
+	}
+
+	private static String format(double value, String pattern) {
+		if (Double.isNaN(value))
+			return "NaN";
+		return new DecimalFormat(pattern, SYMBOLS).format(value);
+	}
+
+	/** Returns the first value of the given attribute among the suites. */
+	static String first(List<Element> suites, String attribute) {
+		return suites.isEmpty() ? "" : suites.get(0).getAttribute(attribute);
+	}
+
+	static String timestamp(List<Element> suites) {
+		return first(suites, TIMESTAMP);
+	}
+
+	static String hostname(List<Element> suites) {
+		return first(suites, HOSTNAME);
+	}
+
+	/**
+	 * Starts the head of a page with the content type the {@code html} output
+	 * method of the stylesheets adds.
+	 */
+	static void startHead(HtmlWriter html) throws IOException {
+		html.start("head");
+		html.empty("META", "http-equiv", "Content-Type", "content",
+				"text/html; charset=" + HtmlWriter.ENCODING);
+	}
+
+	void writeTestsuiteHeader(HtmlWriter html) throws IOException {
+		html.start("tr", "valign", "top");
+		html.element("th", "Name", "width", "80%");
+		html.element("th", "Tests");
+		html.element("th", "Errors");
+		html.element("th", "Failures");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.element("th", "Time Stamp", "nowrap", "nowrap");
+		html.element("th", "Host");
+		html.end("tr");
+	}
+
+	void writeTestcaseHeader(HtmlWriter html, boolean showClass)
+			throws IOException {
+		html.start("tr", "valign", "top");
+		if (showClass)
+			html.element("th", "Class");
+		html.element("th", "Name");
+		html.element("th", "Status");
+		html.element("th", "Type", "width", "80%");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.end("tr");
+	}
+
+	/** Writes the error of a suite whose tests could not even be started. */
+	void writeSuiteError(HtmlWriter html, Element parent) throws IOException {
+		Element error = child(parent, ERROR);
+		if (error == null)
+			return;
+		html.start("tr", "class", "Error").start("td", "colspan", "4");
+		writeFailure(html, error);
+		html.end("td").end("tr");
+	}
+
+	/** Writes the status, details and time cells of a test case. */
+	void writeTestcaseResult(HtmlWriter html, Element testcase,
+			String imageDir) throws IOException {
+		Element failure = child(testcase, FAILURE);
+		Element error = child(testcase, ERROR);
+		if (failure == null && error == null) {
+			html.element("td", "Success");
+			html.start("td").end("td");
+		} else {
+			html.element("td", failure != null ? "Failure" : "Error");
+			html.start("td");
+			writeFailure(html, failure != null ? failure : error);
+			for (Element screenshot : children(testcase, SCREENSHOT_ELEMENT))
+				writeScreenshot(html, screenshot, imageDir);
+			for (Element recording : children(testcase, RECORDING_ELEMENT))
+				writeRecording(html, recording, imageDir);
+			html.end("td");
+		}
+		html.element("td", time(number(testcase, ATTR_TIME)));
+	}
+
+	static void startDetailsTable(HtmlWriter html) throws IOException {
+		html.start("table", "class", "details", "border", "0", "cellpadding",
+				"5", "cellspacing", "2", "width", "95%");
+	}
+
+	/** Returns the comparison with previous runs, if the task made one. */
+	final Element history() {
+		return child(testsuites, HISTORY);
+	}
+
+	/**
+	 * Writes how many tests stand out from their previous runs, with the
+	 * counts linking to the given page unless it is {@code null}.
+	 */
+	static void writeHistorySummary(HtmlWriter html, Element history,
+			String href) throws IOException {
+		html.element("h2", "History");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Previous runs");
+		html.element("th", "Flaky tests");
+		html.element("th", "Slower tests");
+		html.end("tr");
+		html.start("tr", "valign", "top");
+		html.element("td", history.getAttribute(ATTR_RUNS));
+		writeHistoryCount(html, children(history, FLAKY).size(),
+				"Display flaky tests", href);
+		writeHistoryCount(html, children(history, SLOWER).size(),
+				"Display slower tests", href);
+		html.end("tr");
+		html.end("table");
+	}
+
+	private static void writeHistoryCount(HtmlWriter html, int count,
+			String title, String href) throws IOException {
+		html.start("td");
+		if (href == null)
+			html.text(count);
+		else
+			html.element("a", count, "title", title, "href", href);
+		html.end("td");
+	}
+
+	static void writeHistoryDetails(HtmlWriter html, Element history)
+			throws IOException {
+		html.element("h3", "Flaky Tests");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Class");
+		html.element("th", "Name");
+		html.element("th", "Changes");
+		html.element("th", "Runs");
+		html.end("tr");
+		for (Element flaky : children(history, FLAKY)) {
+			html.start("tr", "valign", "top");
+			html.element("td", flaky.getAttribute(ATTR_CLASSNAME));
+			html.element("td", flaky.getAttribute(ATTR_NAME));
+			html.element("td", flaky.getAttribute(ATTR_FLIPS));
+			html.element("td", flaky.getAttribute(ATTR_RUNS));
+			html.end("tr");
+		}
+		html.end("table");
+		html.element("h3", "Slower Tests");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Class");
+		html.element("th", "Name");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.element("th", "Median(s)", "nowrap", "nowrap");
+		html.element("th", "Deviation(s)", "nowrap", "nowrap");
+		html.end("tr");
+		for (Element slower : children(history, SLOWER)) {
+			html.start("tr", "valign", "top");
+			html.element("td", slower.getAttribute(ATTR_CLASSNAME));
+			html.element("td", slower.getAttribute(ATTR_NAME));
+			html.element("td", time(number(slower, ATTR_TIME)));
+			html.element("td", time(number(slower, ATTR_MEDIAN)));
+			html.element("td", time(number(slower, ATTR_DEVIATION)));
+			html.end("tr");
+		}
+		html.end("table");
+	}
+
+	/** Returns where the time of the run went, if the task summed it up. */
+	final Element timing() {
+		return child(testsuites, TIMING);
+	}
+
+	static void writeTimingDetails(HtmlWriter html, Element timing)
+			throws IOException {
+		html.element("h3", "Slowest Tests");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Class");
+		html.element("th", "Name");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.end("tr");
+		for (Element test : children(timing, TimingSummary.TEST)) {
+			html.start("tr", "valign", "top");
+			html.element("td", test.getAttribute(ATTR_CLASSNAME));
+			html.element("td", test.getAttribute(ATTR_NAME));
+			html.element("td", time(number(test, ATTR_TIME)));
+			html.end("tr");
+		}
+		html.end("table");
+		html.element("h3", "Slowest Suites");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Name");
+		html.element("th", "Tests");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.end("tr");
+		for (Element suite : children(timing, TimingSummary.SUITE)) {
+			html.start("tr", "valign", "top");
+			html.element("td", suite.getAttribute(ATTR_NAME));
+			html.element("td", suite.getAttribute(ATTR_TESTS));
+			html.element("td", time(number(suite, ATTR_TIME)));
+			html.end("tr");
+		}
+		html.end("table");
+		html.element("h3", "Packages");
+		startDetailsTable(html);
+		html.start("tr", "valign", "top");
+		html.element("th", "Name");
+		html.element("th", "Tests");
+		html.element("th", "Time(s)", "nowrap", "nowrap");
+		html.element("th", "Share");
+		for (Element range : children(timing, RANGE))
+			html.element("th", range.getAttribute(ATTR_LABEL), "nowrap",
+					"nowrap");
+		html.end("tr");
+		double total = number(timing, ATTR_TIME);
+		for (Element timedPackage : children(timing, TimingSummary.PACKAGE)) {
+			double time = number(timedPackage, ATTR_TIME);
+			html.start("tr", "valign", "top");
+			html.element("td", displayName(timedPackage
+					.getAttribute(ATTR_NAME)));
+			html.element("td", timedPackage.getAttribute(ATTR_TESTS));
+			html.element("td", time(time));
+			html.element("td", percent(time / total));
+			for (Element range : children(timedPackage, RANGE))
+				html.element("td", range.getAttribute(ATTR_COUNT));
+			html.end("tr");
+		}
+		html.end("table");
+	}
+
+	static String displayName(String packageName) {
+		return packageName.length() == 0 ? "<none>" : packageName;
+	}
+
+	void writeFailure(HtmlWriter html, Element failure) throws IOException {
+		if (failure.hasAttribute(ATTR_MESSAGE))
+			html.text(failure.getAttribute(ATTR_MESSAGE));
+		else
+			html.text("N/A");
+		writeStackTrace(html, failure.getTextContent());
+	}
+
+	abstract void writeStackTrace(HtmlWriter html, String stackTrace)
+			throws IOException;
+
+	/** Writes the given text with its line breaks turned into br tags. */
+	static void writeLines(HtmlWriter html, String text) throws IOException {
+		String[] lines = text.split("\n", -1);
+		for (int i = 0; i < lines.length; i++) {
+			if (i > 0)
+				html.empty("br");
+			html.text(lines[i]);
+		}
+	}
+
+	private void writeScreenshot(HtmlWriter html, Element screenshot,
+			String imageDir) throws IOException {
+		String file = screenshot.getAttribute(SCREENSHOT_FILE_ATTRIBUTE);
+		File image = new File(new File(toDir, imageDir), file);
+		if (!screenshot.hasAttribute(SCREENSHOT_PATH_ATTRIBUTE)
+				&& writtenImages.add(image))
+			ImageHandler.decodeBase64AndSave(screenshot.getTextContent(),
+					image.getPath());
+		html.start("div").empty("br");
+		html.element("a", "Screenshot", "href", file);
+		html.end("div");
+	}
+
+	private void writeRecording(HtmlWriter html, Element recording,
+			String imageDir) throws IOException {
+		String file = recording.getAttribute(SCREENSHOT_FILE_ATTRIBUTE);
+		File animation = new File(new File(toDir, imageDir), file);
+		if (!recording.hasAttribute(SCREENSHOT_PATH_ATTRIBUTE)
+				&& writtenImages.add(animation))
+			ImageHandler.decodeBase64ToFile(recording.getTextContent(),
+					animation.getPath());
+		html.start("div");
+		html.element("a", "Recording", "href", file);
+		html.end("div");
+	}
+
+	/**
+	 * Writes the statements filling the {@code TestCases} array the properties
+	 * window of a suite reads from.
+	 */
+	static void writeProperties(HtmlWriter html, Element suite)
+			throws IOException {
+		Element properties = child(suite, PROPERTIES);
+		if (properties == null)
+			return;
+		html.raw("cur = TestCases['" + jsEscape(propertiesKey(suite))
+				+ "'] = new Array();\n");
+		for (Element property : sortedByName(children(properties, PROPERTY)))
+			html.raw("cur['" + jsEscape(property.getAttribute(ATTR_NAME))
+					+ "'] = '" + jsEscape(property.getAttribute(ATTR_VALUE))
+					+ "';\n");
+	}
+
+	/**
+	 * Escapes text for a single-quoted JavaScript string inside a script
+	 * element, which the US-ASCII output cannot hold character references in.
+	 */
+	private static String jsEscape(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' || c == '\'')
+				escaped.append('\\').append(c);
+			else if (c == '/' && i > 0 && text.charAt(i - 1) == '<')
+				escaped.append("\\/");
+			else if (c == '\n')
+				escaped.append("\\n");
+			else if (c == '\r')
+				escaped.append("\\r");
+			else if (c >= 0x80 || c < 0x20)
+				escaped.append(String.format("\\u%04x", (int) c));
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	private static String propertiesKey(Element suite) {
+		return packageName(suite) + "." + suite.getAttribute(ATTR_NAME);
+	}
+
+	static String displayPropertiesLink(Element suite) {
+		return "javascript:displayProperties('"
+				+ jsEscape(propertiesKey(suite)) + "');";
+	}
+}
@@ -0,0 +1,217 @@
+package simple.junit.reporter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static simple.junit.utils.Closeables.closeQuietly;
+import static simple.junit.utils.Strings.concat;
+
+/**
+ * Records the content hash and page id of every test suite rendered into a
+ * report directory, so that the next report only renders the pages of the
+ * suites and packages that changed. Everything is rendered again when the
+ * report settings (format, stylesheet, parameters) change.
+ * <p>
+ * Suites are known by package and name, counting suites of the same name in
+ * order. A suite keeps the id, and so the pages, it had in the previous
+ * report, and a new suite gets an id no suite of the previous report had;
+ * adding or removing a result file leaves the pages of the other suites
+ * alone.
+ */
+final class ReportManifest {
+
+	static final String FILE_NAME = ".simplereport";
+
+	private static final String SETTINGS = "settings";
+	private static final String HISTORY = "history";
+	private static final String ID = ".id";
+	private static final String HASH = ".hash";
+	private static final String PACKAGE = ".package";
+	private static final String NAME = ".name";
+
+	/** Suffixes of the pages the frames report writes for a suite. */
+	private static final String[] PAGE_SUFFIXES = { ".html", "-fails.html",
+			"-errors.html", "-out.txt", "-err.txt" };
+
+	private final File toDir;
+
+	private final File file;
+
+	private final Properties previous = new Properties();
+
+	private final Properties current = new Properties();
+
+	private final boolean settingsChanged;
+
+	private final Map<String, String> suitePackages = new LinkedHashMap<String, String>();
+
+	private final Map<String, Integer> suiteCounts = new HashMap<String, Integer>();
+
+	private int nextId;
+
+	ReportManifest(File toDir, String settings) throws IOException {
+		this.toDir = toDir;
+		file = new File(toDir, FILE_NAME);
+		if (file.isFile())
+			load();
+		settingsChanged = !settings.equals(previous.getProperty(SETTINGS));
+		current.setProperty(SETTINGS, settings);
+		for (String key : previousSuites())
+			nextId = Math.max(nextId, id(previous, key) + 1);
+	}
+
+	private void load() throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			previous.load(in);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Adds a suite of the report and returns the id to render its pages
+	 * with.
+	 */
+	String addSuite(String packageName, String name, String contentHash) {
+		String suite = concat(packageName, "/", name);
+		int count = count(suiteCounts, suite);
+		suiteCounts.put(suite, count + 1);
+		String key = concat(suite, "/", String.valueOf(count));
+		String id = previous.getProperty(concat(key, ID));
+		if (id == null)
+			id = String.valueOf(nextId++);
+		current.setProperty(concat(key, ID), id);
+		current.setProperty(concat(key, HASH), contentHash);
+		current.setProperty(concat(key, PACKAGE), packageName);
+		current.setProperty(concat(key, NAME), name);
+		suitePackages.put(key, packageName);
+		return id;
+	}
+
+	/**
+	 * Records the hash of how the results compare with their history. Only
+	 * the pages of the whole report show the history, so another history
+	 * makes the report out of date without changing the pages of any suite.
+	 */
+	void setHistory(String historyHash) {
+		current.setProperty(HISTORY, historyHash);
+	}
+
+	boolean isUpToDate() {
+		return !settingsChanged && current.equals(previous);
+	}
+
+	/**
+	 * Returns the ids of the suites rendered from the same content as last
+	 * time.
+	 */
+	Set<String> unchangedSuites() {
+		Set<String> unchanged = new LinkedHashSet<String>();
+		for (String key : suitePackages.keySet())
+			if (isUnchanged(key))
+				unchanged.add(current.getProperty(concat(key, ID)));
+		return unchanged;
+	}
+
+	/**
+	 * Returns the packages whose suites are all unchanged and which have
+	 * neither gained nor lost a suite.
+	 */
+	Set<String> unchangedPackages() {
+		Map<String, Integer> changes = new HashMap<String, Integer>();
+		for (Map.Entry<String, String> suite : suitePackages.entrySet()) {
+			String packageName = suite.getValue();
+			int change = isUnchanged(suite.getKey()) ? 0 : 1;
+			changes.put(packageName, change + count(changes, packageName));
+		}
+		for (String key : previousSuites())
+			if (!suitePackages.containsKey(key)) {
+				String packageName = previous.getProperty(concat(key, PACKAGE));
+				changes.put(packageName, 1 + count(changes, packageName));
+			}
+		Set<String> unchanged = new LinkedHashSet<String>();
+		for (Map.Entry<String, Integer> change : changes.entrySet())
+			if (change.getValue() == 0)
+				unchanged.add(change.getKey());
+		return unchanged;
+	}
+
+	/**
+	 * Deletes the pages of the suites of the previous report which are not
+	 * in this one.
+	 */
+	void deleteRemovedPages() {
+		for (String key : previousSuites()) {
+			if (suitePackages.containsKey(key))
+				continue;
+			String packageName = previous.getProperty(concat(key, PACKAGE), "");
+			File packageDir = packageName.length() == 0 ? toDir : new File(
+					toDir, NativeReportRenderer.packageDir(packageName));
+			String pageName = concat(previous.getProperty(concat(key, ID)),
+					"_", previous.getProperty(concat(key, NAME)));
+			for (String suffix : PAGE_SUFFIXES)
+				new File(packageDir, concat(pageName, suffix)).delete();
+		}
+	}
+
+	private static int count(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		return count == null ? 0 : count;
+	}
+
+	/** Returns the keys of the suites of the previous report. */
+	private Set<String> previousSuites() {
+		Set<String> keys = new LinkedHashSet<String>();
+		for (Object name : previous.keySet()) {
+			String property = (String) name;
+			if (property.endsWith(ID))
+				keys.add(property.substring(0, property.length()
+						- ID.length()));
+		}
+		return keys;
+	}
+
+	private static int id(Properties properties, String key) {
+		try {
+			return Integer.parseInt(properties.getProperty(concat(key, ID)));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private boolean isUnchanged(String key) {
+		if (settingsChanged)
+			return false;
+		String hash = previous.getProperty(concat(key, HASH));
+		return hash != null
+				&& hash.equals(current.getProperty(concat(key, HASH)));
+	}
+
+	/**
+	 * Removes the manifest of the previous report, so that a report which
+	 * fails half way is rendered in full the next time.
+	 */
+	void delete() {
+		file.delete();
+	}
+
+	void store() throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			current.store(out, "simplereport manifest");
+		} finally {
+			closeQuietly(out);
+		}
+	}
+}
@@ -1,25 +1,55 @@
 package simple.junit.reporter;
 
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ID;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_PACKAGE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.SYSTEM_ERR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.SYSTEM_OUT;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTSUITE;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.RECORDING_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_ELEMENT;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_FILE_ATTRIBUTE;
+import static simple.junit.reporter.ScreenshotOnFailureResultFormatter.SCREENSHOT_PATH_ATTRIBUTE;
 import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.isNullOrEmpty;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.dom.DOMSource;
+
 import org.apache.tools.ant.*;
 import org.apache.tools.ant.taskdefs.*;
 import org.apache.tools.ant.taskdefs.XSLTProcess.Param;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
-import org.apache.tools.ant.taskdefs.optional.junit.XMLResultAggregator;
 import org.apache.tools.ant.types.*;
 import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.GZipResource;
 import org.apache.tools.ant.types.resources.URLResource;
 import org.apache.tools.ant.util.FileUtils;
+import org.apache.tools.ant.util.ResourceUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import simple.junit.reporter.CompiledStylesheets.CompiledStylesheet;
 
 public class ReportTransformer extends AggregateTransformer {
 
 	private static final String XSL_FILE_PATH = "";
+	private static final String UNCHANGED_ATTRIBUTE = "unchanged";
+	private static final String UNCHANGED_PACKAGE_ATTRIBUTE = "unchanged-package";
+	private static final String TEXT_ENCODING = "UTF-8";
 	private Path classpath;
 
 	private final List<Param> params;
@@ -28,6 +58,10 @@ public class ReportTransformer extends AggregateTransformer {
 
 	private static int counter;
 
+	private boolean incremental;
+
+	private Engine engine = new Engine();
+
 	public ReportTransformer(Task task) {
 		super(task);
 		params = new CopyOnWriteArrayList<Param>();
@@ -43,33 +77,277 @@ public class ReportTransformer extends AggregateTransformer {
 	@Override
 	public void transform() throws BuildException {
 		checkOptions();
-		TempFile tempFileTask = tempFileTask();
-		XSLTProcess xsltTask = xsltTask();
-		File outputFile = outputFile(tempFileTask);
-		xsltTask.setOut(outputFile);
-		createNewParams(xsltTask);
-		createOutputDirParam(xsltTask);
 		long startingTime = System.currentTimeMillis();
-		try {
-			xsltTask.execute();
-		} catch (Exception e) {
-			throw new BuildException(concat(
-					"Errors while applying transformations: ", e.getMessage()),
-					e);
+		Resource stylesheet = getStylesheet();
+		ReportManifest manifest = manifest(stylesheet);
+		if (manifest != null && manifest.isUpToDate()) {
+			task.log("Report is up to date");
+			return;
+		}
+		if (engine.isNative()) {
+			try {
+				render(manifest);
+			} catch (IOException e) {
+				throw new BuildException(concat("Errors while rendering: ",
+						e.getMessage()), e);
+			}
+		} else {
+			TempFile tempFileTask = tempFileTask();
+			File outputFile = outputFile(tempFileTask);
+			try {
+				transform(stylesheet, manifest, outputFile);
+			} catch (Exception e) {
+				throw new BuildException(concat(
+						"Errors while applying transformations: ",
+						e.getMessage()), e);
+			}
+			delete(outputFile);
 		}
 		long transformTime = System.currentTimeMillis() - startingTime;
 		task.log(concat("Transform time: ", String.valueOf(transformTime),
 				" ms"));
-		delete(outputFile);
+		copyResultFiles();
+	}
+
+	private void render(ReportManifest manifest) throws IOException {
+		Element testsuites = document.getDocumentElement();
+		NativeReportRenderer renderer;
+		if (FRAMES.equals(format)) {
+			Set<String> unchangedSuites = Collections.emptySet();
+			Set<String> unchangedPackages = Collections.emptySet();
+			if (manifest != null) {
+				unchangedSuites = manifest.unchangedSuites();
+				unchangedPackages = manifest.unchangedPackages();
+			}
+			renderer = new NativeFramesRenderer(testsuites, toDir,
+					unchangedSuites, unchangedPackages, threads());
+		} else
+			renderer = new NativeNoFramesRenderer(testsuites, toDir);
+		if (manifest != null)
+			manifest.delete();
+		renderer.render();
+		if (manifest != null)
+			store(manifest);
+	}
+
+	private void copyResultFiles() {
+		if (document == null)
+			return;
+		for (Element testsuite : testsuites())
+			copyResultFiles(testsuite);
+	}
+
+	/**
+	 * Returns the suites of the aggregated document. A live node list would
+	 * walk the document again from the start every time it changed.
+	 */
+	private List<Element> testsuites() {
+		return NativeReportRenderer.children(document.getDocumentElement(),
+				TESTSUITE);
+	}
+
+	private void copyResultFiles(Element testsuite) {
+		File screenshotDir = toDir;
+		if (FRAMES.equals(format))
+			screenshotDir = new File(toDir, testsuite.getAttribute(
+					ATTR_PACKAGE).replace('.', '/'));
+		copyScreenshots(testsuite, SCREENSHOT_ELEMENT, screenshotDir);
+		copyScreenshots(testsuite, RECORDING_ELEMENT, screenshotDir);
+		if (FRAMES.equals(format)) {
+			copyOutput(testsuite, SYSTEM_OUT, "-out.txt", screenshotDir);
+			copyOutput(testsuite, SYSTEM_ERR, "-err.txt", screenshotDir);
+		}
+	}
+
+	/**
+	 * Copies output saved beside the result file to the page the class page
+	 * links to, in place of the text the report would have written.
+	 */
+	private void copyOutput(Element testsuite, String elementName,
+			String pageSuffix, File packageDir) {
+		NodeList outputs = testsuite.getElementsByTagName(elementName);
+		if (outputs.getLength() == 0)
+			return;
+		String path = ((Element) outputs.item(0))
+				.getAttribute(SCREENSHOT_PATH_ATTRIBUTE);
+		if (isNullOrEmpty(path))
+			return;
+		File source = new File(path);
+		File target = new File(packageDir, concat(testsuite
+				.getAttribute(ATTR_ID), "_", testsuite.getAttribute(ATTR_NAME),
+				pageSuffix));
+		if (!path.endsWith(".gz")) {
+			copy(source, target);
+			return;
+		}
+		try {
+			ResourceUtils.copyResource(new GZipResource(new FileResource(
+					source)), new FileResource(target));
+		} catch (IOException e) {
+			task.log(concat("Unable to uncompress ", source, ": ",
+					e.getMessage()), Project.MSG_WARN);
+		}
+	}
+
+	private void copyScreenshots(Element testsuite, String elementName,
+			File screenshotDir) {
+		NodeList screenshots = testsuite.getElementsByTagName(elementName);
+		for (int i = 0; i < screenshots.getLength(); i++) {
+			Element screenshot = (Element) screenshots.item(i);
+			String path = screenshot.getAttribute(SCREENSHOT_PATH_ATTRIBUTE);
+			if (isNullOrEmpty(path))
+				continue;
+			File target = new File(screenshotDir,
+					screenshot.getAttribute(SCREENSHOT_FILE_ATTRIBUTE));
+			copy(new File(path), target);
+		}
+	}
+
+	private void copy(File source, File target) {
+		try {
+			FILE_UTILS.copyFile(source, target, null, false);
+		} catch (IOException e) {
+			task.log(concat("Unable to copy ", source, ": ",
+					e.getMessage()), Project.MSG_WARN);
+		}
+	}
+
+	/**
+	 * Writes the output of a suite to the text page its class page links to,
+	 * in UTF-8. The frames stylesheet calls it rather than write the page in
+	 * its own output encoding, US-ASCII, which would lose every other
+	 * character.
+	 */
+	public static String writeText(String text, String filePath)
+			throws IOException {
+		File file = new File(filePath);
+		file.getParentFile().mkdirs();
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), TEXT_ENCODING));
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		return "";
 	}
 
-	private XSLTProcess xsltTask() {
-		XSLTProcess xsltTask = new XSLTProcess();
-		xsltTask.bindToOwner(task);
-		xsltTask.setClasspath(classpath);
-		xsltTask.setXslResource(getStylesheet());
-		xsltTask.setIn(((XMLResultAggregator) task).getDestinationFile());
-		return xsltTask;
+	private void transform(Resource stylesheetResource,
+			ReportManifest manifest, File outputFile) throws Exception {
+		CompiledStylesheet stylesheet = CompiledStylesheets.stylesheet(
+				systemId(stylesheetResource),
+				stylesheetResource.getLastModified(), classpath,
+				task.getProject());
+		ClassLoader contextClassLoader = stylesheet.useClassLoader();
+		try {
+			Transformer transformer = stylesheet.newTransformer();
+			setParameters(transformer);
+			if (manifest != null) {
+				markUnchanged(manifest);
+				manifest.delete();
+			}
+			transformer.transform(new DOMSource(document), new StreamResult(
+					outputFile));
+		} finally {
+			CompiledStylesheets.useClassLoader(contextClassLoader);
+			if (manifest != null)
+				unmarkUnchanged();
+		}
+		if (manifest != null)
+			store(manifest);
+	}
+
+	/**
+	 * Marks the suites whose pages, and those whose package pages, the
+	 * previous report left as they are, so that the stylesheet skips them by
+	 * an attribute rather than by looking them up in a list.
+	 */
+	private void markUnchanged(ReportManifest manifest) {
+		Set<String> unchangedSuites = manifest.unchangedSuites();
+		Set<String> unchangedPackages = manifest.unchangedPackages();
+		for (Element testsuite : testsuites()) {
+			if (unchangedSuites.contains(testsuite.getAttribute(ATTR_ID)))
+				testsuite.setAttribute(UNCHANGED_ATTRIBUTE, "true");
+			if (unchangedPackages.contains(testsuite
+					.getAttribute(ATTR_PACKAGE)))
+				testsuite.setAttribute(UNCHANGED_PACKAGE_ATTRIBUTE, "true");
+		}
+	}
+
+	private void unmarkUnchanged() {
+		for (Element testsuite : testsuites()) {
+			testsuite.removeAttribute(UNCHANGED_ATTRIBUTE);
+			testsuite.removeAttribute(UNCHANGED_PACKAGE_ATTRIBUTE);
+		}
+	}
+
+	private void store(ReportManifest manifest) throws IOException {
+		if (FRAMES.equals(format))
+			manifest.deleteRemovedPages();
+		manifest.store();
+	}
+
+	private int threads() {
+		if (task instanceof JUnitReportTask)
+			return ((JUnitReportTask) task).threads();
+		return 1;
+	}
+
+	/**
+	 * Returns the manifest of the suites in the report directory, or
+	 * {@code null} if the report is not incremental or the content of the
+	 * suites is not known. The suites get the ids the manifest gives them, so
+	 * that their pages keep their names from one report to the next.
+	 */
+	private ReportManifest manifest(Resource stylesheet) {
+		if (!incremental || !(task instanceof JUnitReportTask))
+			return null;
+		JUnitReportTask reportTask = (JUnitReportTask) task;
+		List<String> contentHashes = reportTask.contentHashes();
+		List<Element> testsuites = testsuites();
+		if (testsuites.size() != contentHashes.size())
+			return null;
+		try {
+			ReportManifest manifest = new ReportManifest(toDir,
+					settings(stylesheet));
+			for (int i = 0; i < testsuites.size(); i++) {
+				Element testsuite = testsuites.get(i);
+				testsuite.setAttribute(ATTR_ID, manifest.addSuite(testsuite
+						.getAttribute(ATTR_PACKAGE), testsuite
+						.getAttribute(ATTR_NAME), contentHashes.get(i)));
+			}
+			manifest.setHistory(reportTask.historyHash());
+			return manifest;
+		} catch (IOException e) {
+			task.log(concat("Unable to read the report manifest: ",
+					e.getMessage()), Project.MSG_WARN);
+			return null;
+		}
+	}
+
+	private String settings(Resource stylesheet) throws IOException {
+		StringBuilder settings = new StringBuilder();
+		settings.append(format).append('|').append(engine.getValue())
+				.append('|').append(systemId(stylesheet))
+				.append('|').append(stylesheet.getLastModified());
+		for (Param param : params)
+			settings.append('|').append(param.getName()).append('=')
+					.append(param.getExpression());
+		if (task instanceof JUnitReportTask)
+			settings.append("|slowest=").append(
+					((JUnitReportTask) task).slowest());
+		return settings.toString();
+	}
+
+	private String systemId(Resource stylesheet) throws IOException {
+		if (stylesheet instanceof FileResource)
+			return FILE_UTILS.toURI(((FileResource) stylesheet).getFile()
+					.getAbsolutePath());
+		URL stylesheetURL = ((URLResource) stylesheet).getURL();
+		if (stylesheetURL == null)
+			throw new IOException(concat("Stylesheet ", stylesheet,
+					" not found"));
+		return stylesheetURL.toExternalForm();
 	}
 
 	@Override
@@ -117,20 +395,10 @@ public class ReportTransformer extends AggregateTransformer {
 		tempFileTask.execute();
 	}
 
-	private void createNewParams(XSLTProcess xsltTask) {
-		for (Param param : params) {
-			Param p = xsltTask.createParam();
-			p.setProject(task.getProject());
-			p.setName(param.getName());
-			p.setExpression(param.getExpression());
-		}
-	}
-
-	private void createOutputDirParam(XSLTProcess xsltTask) {
-		Param p = xsltTask.createParam();
-		p.setProject(task.getProject());
-		p.setName("output.dir");
-		p.setExpression(toDir.getAbsolutePath());
+	private void setParameters(Transformer transformer) {
+		for (Param param : params)
+			transformer.setParameter(param.getName(), param.getExpression());
+		transformer.setParameter("output.dir", toDir.getAbsolutePath());
 	}
 
 	private void delete(File outputFile) {
@@ -142,6 +410,24 @@ public class ReportTransformer extends AggregateTransformer {
 		deleteTask.execute();
 	}
 
+	/**
+	 * Sets whether only the pages of the suites and packages that changed
+	 * since the last report in the same directory are rendered again.
+	 * Defaults to {@code false}.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Sets how the report is rendered: {@code xslt} applies the report
+	 * stylesheets, {@code native} writes the same pages directly from the
+	 * merged results, without a stylesheet. Defaults to {@code xslt}.
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
 	public void setClasspath(Path classpath) {
 		createClasspath().append(classpath);
 	}
@@ -155,4 +441,23 @@ public class ReportTransformer extends AggregateTransformer {
 			classpath = new Path(task.getProject());
 		return classpath.createPath();
 	}
+
+	public static class Engine extends EnumeratedAttribute {
+
+		private static final String XSLT = "xslt";
+		private static final String NATIVE = "native";
+
+		public Engine() {
+			setValue(XSLT);
+		}
+
+		@Override
+		public String[] getValues() {
+			return new String[] { XSLT, NATIVE };
+		}
+
+		boolean isNative() {
+			return NATIVE.equals(getValue());
+		}
+	}
 }
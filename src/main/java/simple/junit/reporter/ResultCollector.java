@@ -0,0 +1,351 @@
+package simple.junit.reporter;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ERRORS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_FAILURES;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_ID;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_PACKAGE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TESTS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTCASE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTSUITES;
+import static simple.junit.reporter.XmlJUnitResultFormatter.TOTALS;
+import static simple.junit.utils.Strings.concat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.tools.ant.util.DOMElementWriter;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+/**
+ * Collects the results that formatters stream to it while the tests run and
+ * keeps a frames report of them up to date, rendered by the native engine.
+ * Formatters connect to it when {@code simple.junit.reporter.collector} is
+ * set to its {@code host:port}, and stream each suite over its own
+ * connection in the format of streamed result files. Finished suites can
+ * also be written as result files, for a final report.
+ * <p>
+ * Usage: {@code ResultCollector port reportDir [resultDir]}
+ */
+public final class ResultCollector {
+
+	private static final long RENDER_INTERVAL_MILLIS = 1000;
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory
+			.newInstance();
+
+	private final File toDir;
+
+	private final File resultDir;
+
+	private final int threads = Runtime.getRuntime().availableProcessors();
+
+	// suites in the order they started
+	private final List<CollectedSuite> suites = new ArrayList<CollectedSuite>();
+
+	// ids of the suites whose pages are final
+	private final Set<String> renderedSuites = new HashSet<String>();
+
+	private boolean changed;
+
+	ResultCollector(File toDir, File resultDir) {
+		this.toDir = toDir;
+		this.resultDir = resultDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ResultCollector port reportDir [resultDir]");
+			System.exit(2);
+		}
+		ResultCollector collector = new ResultCollector(new File(args[1]),
+				args.length > 2 ? new File(args[2]) : null);
+		collector.listen(new ServerSocket(Integer.parseInt(args[0]), 50,
+				InetAddress.getByName(null)));
+		collector.render();
+	}
+
+	/** Accepts connections on a background thread. */
+	void listen(final ServerSocket serverSocket) {
+		final ExecutorService readers = Executors
+				.newCachedThreadPool(new DaemonThreadFactory("result-reader"));
+		Thread acceptor = new DaemonThreadFactory("result-collector")
+				.newThread(new Runnable() {
+					public void run() {
+						while (!serverSocket.isClosed()) {
+							try {
+								final Socket socket = serverSocket.accept();
+								readers.execute(new Runnable() {
+									public void run() {
+										read(socket);
+									}
+								});
+							} catch (IOException e) {
+								log("Unable to accept a connection", e);
+							}
+						}
+					}
+				});
+		acceptor.start();
+	}
+
+	/** Renders the report whenever results came in, until interrupted. */
+	void render() throws InterruptedException {
+		while (!Thread.currentThread().isInterrupted()) {
+			renderIfChanged();
+			Thread.sleep(RENDER_INTERVAL_MILLIS);
+		}
+	}
+
+	void renderIfChanged() {
+		Document snapshot = newDocument();
+		Element testsuites = snapshot.createElement(TESTSUITES);
+		snapshot.appendChild(testsuites);
+		Set<String> unchangedSuites = new HashSet<String>();
+		List<CollectedSuite> collected = new ArrayList<CollectedSuite>();
+		synchronized (this) {
+			if (!changed)
+				return;
+			changed = false;
+			for (CollectedSuite suite : suites)
+				collected.add(suite.snapshot(snapshot));
+		}
+		for (int id = 0; id < collected.size(); id++) {
+			CollectedSuite suite = collected.get(id);
+			Element copy = suite.suite;
+			for (Element child : suite.children)
+				copy.appendChild(snapshot.importNode(child, true));
+			addSuite(testsuites, copy, id);
+			if (!suite.finished)
+				addRunningTotals(copy);
+			else if (!renderedSuites.add(copy.getAttribute(ATTR_ID)))
+				unchangedSuites.add(copy.getAttribute(ATTR_ID));
+		}
+		try {
+			new NativeFramesRenderer(testsuites, toDir, unchangedSuites,
+					new HashSet<String>(), threads).render();
+		} catch (IOException e) {
+			log("Unable to render the report", e);
+		}
+	}
+
+	/** Sets the attributes the report task gives the suites it merges. */
+	private static void addSuite(Element testsuites, Element suite, int id) {
+		String name = suite.getAttribute(ATTR_NAME);
+		int dot = name.lastIndexOf('.');
+		suite.setAttribute(ATTR_NAME, name.substring(dot + 1));
+		suite.setAttribute(ATTR_PACKAGE, dot < 0 ? "" : name.substring(0, dot));
+		suite.setAttribute(ATTR_ID, String.valueOf(id));
+		testsuites.appendChild(suite);
+	}
+
+	/**
+	 * Counts the tests of a suite whose totals are not known: one which is
+	 * still running, or one whose result file was cut short.
+	 */
+	static void addRunningTotals(Element suite) {
+		int failures = 0;
+		int errors = 0;
+		double time = 0;
+		List<Element> testcases = NativeReportRenderer.children(suite,
+				TESTCASE);
+		for (Element testcase : testcases) {
+			if (NativeReportRenderer.child(testcase, FAILURE) != null)
+				failures++;
+			else if (NativeReportRenderer.child(testcase, ERROR) != null)
+				errors++;
+			time += NativeReportRenderer.number(testcase, ATTR_TIME);
+		}
+		suite.setAttribute(ATTR_TESTS, String.valueOf(testcases.size()));
+		suite.setAttribute(ATTR_FAILURES, String.valueOf(failures));
+		suite.setAttribute(ATTR_ERRORS, String.valueOf(errors));
+		suite.setAttribute(ATTR_TIME, String.valueOf(time));
+	}
+
+	/** Reads the suite streamed over a connection, element by element. */
+	void read(Socket socket) {
+		CollectedSuite suite = null;
+		try {
+			XMLStreamReader reader = INPUT_FACTORY
+					.createXMLStreamReader(new BufferedInputStream(socket
+							.getInputStream()));
+			Document document = newDocument();
+			reader.nextTag();
+			suite = new CollectedSuite(readAttributes(reader, document));
+			synchronized (this) {
+				suites.add(suite);
+				changed = true;
+			}
+			while (reader.nextTag() == START_ELEMENT) {
+				// in a document of its own, which the report copies from
+				// while the next elements are read
+				Element child = readElement(reader, newDocument());
+				synchronized (this) {
+					if (TOTALS.equals(child.getTagName()))
+						setAttributes(suite.suite, child);
+					else
+						suite.children.add(child);
+					changed = true;
+				}
+			}
+			synchronized (this) {
+				suite.finished = true;
+			}
+			writeResultFile(suite);
+		} catch (Exception e) {
+			log(concat("Lost the results of ", suite == null ? socket
+					: suite.suite.getAttribute(ATTR_NAME)), e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static Element readAttributes(XMLStreamReader reader,
+			Document document) {
+		Element element = document.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++)
+			element.setAttribute(reader.getAttributeLocalName(i), reader
+					.getAttributeValue(i));
+		return element;
+	}
+
+	private static Element readElement(XMLStreamReader reader,
+			Document document) throws XMLStreamException {
+		Element element = readAttributes(reader, document);
+		while (true) {
+			switch (reader.next()) {
+			case START_ELEMENT:
+				element.appendChild(readElement(reader, document));
+				break;
+			case CHARACTERS:
+			case CDATA:
+			case SPACE:
+				element.appendChild(document.createTextNode(reader.getText()));
+				break;
+			case END_ELEMENT:
+				return element;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static void setAttributes(Element element, Element from) {
+		NamedNodeMap attributes = from.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr) attributes.item(i);
+			element.setAttribute(attribute.getName(), attribute.getValue());
+		}
+	}
+
+	/**
+	 * Writes a finished suite as a result file. Nothing changes a finished
+	 * suite, so it is written without holding the lock.
+	 */
+	private void writeResultFile(CollectedSuite suite) throws IOException {
+		if (resultDir == null)
+			return;
+		resultDir.mkdirs();
+		File file = new File(resultDir, concat("TEST-", suite.suite
+				.getAttribute(ATTR_NAME), ".xml"));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF8"));
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			DOMElementWriter elementWriter = new DOMElementWriter();
+			boolean hasChildren = !suite.children.isEmpty();
+			elementWriter.openElement(suite.suite, writer, 0, "  ",
+					hasChildren);
+			if (hasChildren)
+				writer.write("\n");
+			for (Element child : suite.children)
+				elementWriter.write(child, writer, 1, "  ");
+			elementWriter.closeElement(suite.suite, writer, 0, "  ",
+					hasChildren);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static Document newDocument() {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.newDocument();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void log(String message, Exception e) {
+		System.err.println(concat(message, ": ", e.getMessage()));
+	}
+
+	/**
+	 * A suite as streamed so far: its attributes, and the elements read for
+	 * it. Each element is read into a document of its own and never changes
+	 * once added, so that the report can copy it without holding the lock
+	 * while the connection goes on reading.
+	 */
+	private static final class CollectedSuite {
+
+		private final Element suite;
+
+		private final List<Element> children;
+
+		private boolean finished;
+
+		private CollectedSuite(Element suite) {
+			this(suite, new ArrayList<Element>(), false);
+		}
+
+		private CollectedSuite(Element suite, List<Element> children,
+				boolean finished) {
+			this.suite = suite;
+			this.children = children;
+			this.finished = finished;
+		}
+
+		/**
+		 * Copies the attributes of the suite into the given document and takes
+		 * the elements read so far, leaving them to be copied later.
+		 */
+		private CollectedSuite snapshot(Document document) {
+			return new CollectedSuite((Element) document.importNode(suite,
+					false), new ArrayList<Element>(children), finished);
+		}
+	}
+}
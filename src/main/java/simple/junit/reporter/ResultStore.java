@@ -0,0 +1,562 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_CLASSNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.FAILURE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTCASE;
+import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.quote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * An append-only store of the test results of many runs, which can be
+ * queried without reading it all.
+ * <p>
+ * A store is a directory of four files:
+ * <ul>
+ * <li>{@code runs.dat}: the time, first result and result file hash of each
+ * run. A run is only part of the store once its entry is written, so a run
+ * interrupted while being appended is ignored, and overwritten by the next
+ * one.</li>
+ * <li>{@code results.dat}: one fixed-size record per test result, holding
+ * the test, its outcome, its time and the records of the previous result of
+ * the same test and of the previous result of the same test with the same
+ * outcome. It is memory-mapped in segments, and queries follow these links
+ * back from the latest result of a test.</li>
+ * <li>{@code tests.dat}: the class and method names of the tests, in the
+ * order they were first stored. Tests are few next to their results, so
+ * they are read when the store is opened.</li>
+ * <li>{@code heads.dat}: the latest result of each test, overall and per
+ * outcome. It is rebuilt from the results if it does not match them.</li>
+ * </ul>
+ * <p>
+ * Readers hold a shared lock on {@code runs.dat} while they load the store,
+ * and only {@link #append} writes to it, under an exclusive lock: it repairs
+ * what an interrupted append left behind and rewrites the heads.
+ * <p>
+ * Usage:
+ * {@code ResultStore storeDir className methodName [passed|failure|error] [runs]}
+ */
+public final class ResultStore {
+
+	static final int PASSED = 0;
+
+	static final int FAILED = 1;
+
+	static final int ERRORED = 2;
+
+	private static final String[] OUTCOME_NAMES = { "passed", FAILURE, ERROR };
+
+	// the latest result overall, then with each outcome
+	private static final int HEADS_PER_TEST = OUTCOME_NAMES.length + 1;
+
+	static final int NONE = -1;
+
+	private static final int MAGIC = 0x4a555253; // JURS
+
+	private static final int VERSION = 2;
+
+	private static final int RUNS_HEADER_LENGTH = 8;
+
+	private static final String CONTENT_HASH_ALGORITHM = "SHA-1";
+
+	private static final int CONTENT_HASH_LENGTH = 20;
+
+	// time, first result, result count, test count, content hash
+	private static final int RUN_LENGTH = 20 + CONTENT_HASH_LENGTH;
+
+	// test, outcome, micros, previous, previous with the same outcome
+	private static final int RESULT_LENGTH = 24;
+
+	private static final int SEGMENT_SHIFT = 21;
+
+	private static final int SEGMENT_RESULTS = 1 << SEGMENT_SHIFT;
+
+	private static final int HEADS_HEADER_LENGTH = 4;
+
+	private final File dir;
+
+	private final File headsFile;
+
+	// null until the store exists, opened for writing once appended to
+	private RandomAccessFile runsFile;
+
+	private RandomAccessFile resultsFile;
+
+	private RandomAccessFile testsFile;
+
+	private boolean writable;
+
+	private final List<String> tests = new ArrayList<String>();
+
+	private final Map<String, Integer> testIds = new HashMap<String, Integer>();
+
+	private int[] heads = new int[0];
+
+	private long[] runTimes = new long[0];
+
+	private int[] runStarts = new int[0];
+
+	private int runCount;
+
+	private int resultCount;
+
+	// the length of the names of the tests of the stored runs
+	private long testsLength;
+
+	// of the result files of the last run
+	private byte[] lastContentHash = new byte[CONTENT_HASH_LENGTH];
+
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	private ResultStore(File dir) {
+		this.dir = dir;
+		headsFile = new File(dir, "heads.dat");
+	}
+
+	/**
+	 * Opens the store in the given directory for reading. A store which does
+	 * not exist yet is empty, and is created by the first {@link #append}.
+	 */
+	public static ResultStore open(File dir) throws IOException {
+		ResultStore store = new ResultStore(dir);
+		if (!new File(dir, "runs.dat").isFile())
+			return store;
+		try {
+			store.openFiles("r");
+			FileLock lock = store.runsFile.getChannel().lock(0,
+					Long.MAX_VALUE, true);
+			try {
+				store.load();
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			store.close();
+			throw e;
+		}
+		return store;
+	}
+
+	private void openFiles(String mode) throws IOException {
+		close();
+		runsFile = new RandomAccessFile(new File(dir, "runs.dat"), mode);
+		resultsFile = new RandomAccessFile(new File(dir, "results.dat"), mode);
+		testsFile = new RandomAccessFile(new File(dir, "tests.dat"), mode);
+	}
+
+	/**
+	 * Reads the runs, tests and heads of the store, ignoring what an
+	 * interrupted append left behind rather than repairing it.
+	 */
+	private void load() throws IOException {
+		tests.clear();
+		testIds.clear();
+		segments.clear();
+		runsFile.seek(0);
+		if (runsFile.length() == 0)
+			runCount = 0;
+		else if (runsFile.readInt() != MAGIC || runsFile.readInt() != VERSION)
+			throw new IOException("Not a result store, or an unsupported version");
+		else
+			runCount = (int) ((runsFile.length() - RUNS_HEADER_LENGTH) / RUN_LENGTH);
+		runTimes = new long[runCount];
+		runStarts = new int[runCount + 1];
+		int testCount = 0;
+		ByteBuffer runs = read(runsFile, runCount * RUN_LENGTH);
+		for (int run = 0; run < runCount; run++) {
+			runTimes[run] = runs.getLong();
+			runStarts[run] = runs.getInt();
+			int results = runs.getInt();
+			testCount = runs.getInt();
+			runs.get(lastContentHash);
+			runStarts[run + 1] = runStarts[run] + results;
+		}
+		resultCount = runStarts[runCount];
+		loadTests(testCount);
+		loadHeads();
+	}
+
+	private void loadTests(int testCount) throws IOException {
+		testsFile.seek(0);
+		for (int id = 0; id < testCount; id++)
+			addTest(testsFile.readUTF());
+		// names of tests added by an interrupted append follow
+		testsLength = testsFile.getFilePointer();
+	}
+
+	private void loadHeads() throws IOException {
+		int length = tests.size() * HEADS_PER_TEST;
+		heads = new int[length];
+		if (headsFile.isFile()) {
+			RandomAccessFile file = new RandomAccessFile(headsFile, "r");
+			try {
+				if (file.length() == HEADS_HEADER_LENGTH + length * 4L
+						&& file.readInt() == resultCount) {
+					read(file, length * 4).asIntBuffer().get(heads);
+					return;
+				}
+			} finally {
+				file.close();
+			}
+		}
+		rebuildHeads();
+	}
+
+	/** Rebuilds the heads in memory; the next append saves them. */
+	private void rebuildHeads() throws IOException {
+		Arrays.fill(heads, NONE);
+		for (int result = 0; result < resultCount; result++) {
+			ByteBuffer segment = segment(result);
+			int offset = offset(result);
+			setHeads(segment.getInt(offset), segment.getInt(offset + 4), result);
+		}
+	}
+
+	private void saveHeads() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(resultCount);
+		for (int i = 0; i < tests.size() * HEADS_PER_TEST; i++)
+			out.writeInt(heads[i]);
+		RandomAccessFile file = new RandomAccessFile(headsFile, "rw");
+		try {
+			file.setLength(0);
+			file.write(bytes.toByteArray());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads from the current position of a small file, which is not mapped
+	 * so that it can be truncated or rewritten later on any platform.
+	 */
+	private static ByteBuffer read(RandomAccessFile file, int length)
+			throws IOException {
+		byte[] bytes = new byte[length];
+		file.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile file, long position,
+			long size) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_ONLY, position,
+				size);
+	}
+
+	private int addTest(String test) {
+		int id = tests.size();
+		tests.add(test);
+		testIds.put(test, id);
+		return id;
+	}
+
+	/**
+	 * Returns the latest result of a test, or its latest result with the
+	 * given outcome unless it is {@link #NONE}.
+	 */
+	private int head(int test, int outcome) {
+		int index = test * HEADS_PER_TEST + outcome + 1;
+		return index < heads.length ? heads[index] : NONE;
+	}
+
+	private void setHeads(int test, int outcome, int result) {
+		int needed = (test + 1) * HEADS_PER_TEST;
+		if (heads.length < needed) {
+			int[] grown = new int[Math.max(needed, heads.length * 2)];
+			System.arraycopy(heads, 0, grown, 0, heads.length);
+			Arrays.fill(grown, heads.length, grown.length, NONE);
+			heads = grown;
+		}
+		heads[test * HEADS_PER_TEST] = result;
+		heads[test * HEADS_PER_TEST + outcome + 1] = result;
+	}
+
+	/**
+	 * Appends the results of the test suites merged by the report task as
+	 * a new run, and returns its number. Returns {@link #NONE} without
+	 * appending anything if the last run was merged from result files with
+	 * the same content hashes, as when a report is run again on the same
+	 * results.
+	 */
+	public int append(Element testsuites, long time, List<String> contentHashes)
+			throws IOException {
+		if (!writable) {
+			dir.mkdirs();
+			openFiles("rw");
+			writable = true;
+		}
+		FileLock lock = runsFile.getChannel().lock();
+		try {
+			// another build may have appended a run since the store was read
+			load();
+			byte[] contentHash = contentHash(contentHashes);
+			if (runCount > 0 && Arrays.equals(contentHash, lastContentHash))
+				return NONE;
+			if (runsFile.length() == 0) {
+				runsFile.writeInt(MAGIC);
+				runsFile.writeInt(VERSION);
+			}
+			return appendRun(testsuites, time, contentHash);
+		} finally {
+			lock.release();
+		}
+	}
+
+	private static byte[] contentHash(List<String> contentHashes) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (String contentHash : contentHashes)
+			digest.update(utf8(concat(contentHash, "\n")));
+		return digest.digest();
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int appendRun(Element testsuites, long time, byte[] contentHash)
+			throws IOException {
+		int firstResult = resultCount;
+		int firstTest = tests.size();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream results = new DataOutputStream(bytes);
+		NodeList testcases = testsuites.getElementsByTagName(TESTCASE);
+		for (int i = 0; i < testcases.getLength(); i++) {
+			Element testcase = (Element) testcases.item(i);
+			String test = testName(testcase.getAttribute(ATTR_CLASSNAME),
+					testcase.getAttribute(ATTR_NAME));
+			Integer id = testIds.get(test);
+			if (id == null)
+				id = addTest(test);
+			int outcome = outcome(testcase);
+			results.writeInt(id);
+			results.writeInt(outcome);
+			results.writeLong(micros(testcase.getAttribute(ATTR_TIME)));
+			results.writeInt(head(id, NONE));
+			results.writeInt(head(id, outcome));
+			setHeads(id, outcome, resultCount++);
+		}
+		resultsFile.setLength((long) firstResult * RESULT_LENGTH);
+		resultsFile.seek(resultsFile.length());
+		resultsFile.write(bytes.toByteArray());
+		testsFile.setLength(testsLength);
+		testsFile.seek(testsLength);
+		for (int id = firstTest; id < tests.size(); id++)
+			testsFile.writeUTF(tests.get(id));
+		testsLength = testsFile.getFilePointer();
+		// the run is only stored once its entry is written
+		runsFile.seek(RUNS_HEADER_LENGTH + (long) runCount * RUN_LENGTH);
+		runsFile.writeLong(time);
+		runsFile.writeInt(firstResult);
+		runsFile.writeInt(resultCount - firstResult);
+		runsFile.writeInt(tests.size());
+		runsFile.write(contentHash);
+		runsFile.setLength(runsFile.getFilePointer());
+		lastContentHash = contentHash;
+		runTimes = grow(runTimes, runCount + 1);
+		runTimes[runCount] = time;
+		runStarts = grow(runStarts, runCount + 2);
+		runStarts[runCount + 1] = resultCount;
+		saveHeads();
+		return runCount++;
+	}
+
+	private static long[] grow(long[] array, int length) {
+		long[] grown = new long[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	static String testName(String className, String methodName) {
+		return concat(className, "#", methodName);
+	}
+
+	private static int outcome(Element testcase) {
+		if (NativeReportRenderer.child(testcase, FAILURE) != null)
+			return FAILED;
+		if (NativeReportRenderer.child(testcase, ERROR) != null)
+			return ERRORED;
+		return PASSED;
+	}
+
+	private static long micros(String seconds) {
+		try {
+			return Math.round(Double.parseDouble(seconds) * 1000000);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/** Returns the number of runs in the store. */
+	public int runCount() {
+		return runCount;
+	}
+
+	/** Returns the time the given run was appended at. */
+	public long runTime(int run) {
+		return runTimes[run];
+	}
+
+	/**
+	 * Returns the results of a test in the last {@code runs} runs, latest
+	 * first, only keeping those with the given outcome unless it is
+	 * {@link #NONE}.
+	 */
+	List<Result> results(String className, String methodName, int outcome,
+			int runs) throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		Integer test = testIds.get(testName(className, methodName));
+		if (test == null)
+			return results;
+		int firstResult = runStarts[Math.max(runCount - runs, 0)];
+		int result = head(test, outcome);
+		// links to results of the same outcome are at offset 20
+		int link = outcome < 0 ? 16 : 20;
+		while (result != NONE && result >= firstResult) {
+			ByteBuffer segment = segment(result);
+			int offset = offset(result);
+			results.add(new Result(run(result), segment.getInt(offset + 4),
+					segment.getLong(offset + 8)));
+			result = segment.getInt(offset + link);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the last run starting at or before the given result, which
+	 * skips the runs without results starting at the same one.
+	 */
+	private int run(int result) {
+		int low = 0;
+		int high = runCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (runStarts[middle] <= result)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	private ByteBuffer segment(int result) throws IOException {
+		int index = result >>> SEGMENT_SHIFT;
+		while (segments.size() <= index)
+			segments.add(null);
+		MappedByteBuffer segment = segments.get(index);
+		if (segment == null || segment.capacity() <= offset(result)) {
+			long start = (long) index * SEGMENT_RESULTS * RESULT_LENGTH;
+			long length = Math.min((long) SEGMENT_RESULTS * RESULT_LENGTH,
+					(long) resultCount * RESULT_LENGTH - start);
+			segment = map(resultsFile, start, length);
+			segments.set(index, segment);
+		}
+		return segment;
+	}
+
+	private static int offset(int result) {
+		return (result & (SEGMENT_RESULTS - 1)) * RESULT_LENGTH;
+	}
+
+	public void close() throws IOException {
+		segments.clear();
+		try {
+			close(runsFile);
+			close(resultsFile);
+		} finally {
+			close(testsFile);
+		}
+	}
+
+	private static void close(RandomAccessFile file) throws IOException {
+		if (file != null)
+			file.close();
+	}
+
+	/** A result of a test in a run. */
+	static final class Result {
+
+		final int run;
+
+		final int outcome;
+
+		final long micros;
+
+		Result(int run, int outcome, long micros) {
+			this.run = run;
+			this.outcome = outcome;
+			this.micros = micros;
+		}
+
+		boolean passed() {
+			return outcome == PASSED;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println(concat("Usage: ResultStore storeDir className",
+					" methodName [passed|failure|error] [runs]"));
+			System.exit(2);
+		}
+		int outcome = args.length > 3 ? Arrays.asList(OUTCOME_NAMES).indexOf(
+				args[3]) : NONE;
+		if (args.length > 3 && outcome < 0)
+			throw new IllegalArgumentException(concat("Unknown outcome ",
+					quote(args[3])));
+		ResultStore store = open(new File(args[0]));
+		try {
+			int runs = args.length > 4 ? Integer.parseInt(args[4]) : store
+					.runCount();
+			SimpleDateFormat format = new SimpleDateFormat(
+					"yyyy-MM-dd'T'HH:mm:ss");
+			for (Result result : store.results(args[1], args[2], outcome, runs))
+				System.out.println(concat("run ", result.run, " ", format
+						.format(new Date(store.runTime(result.run))), " ",
+						OUTCOME_NAMES[result.outcome], " ",
+						result.micros / 1000000.0));
+		} finally {
+			store.close();
+		}
+	}
+}
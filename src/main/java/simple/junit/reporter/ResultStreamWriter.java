@@ -0,0 +1,26 @@
+package simple.junit.reporter;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Element;
+
+/**
+ * Writes the results of a suite element by element, as they are recorded:
+ * the suite element first, then each of its children, then its end.
+ */
+interface ResultStreamWriter {
+
+	void writeStartDocument() throws XMLStreamException;
+
+	void writeStartElement(Element element) throws XMLStreamException;
+
+	void write(Element element) throws XMLStreamException;
+
+	void writeEndElement() throws XMLStreamException;
+
+	void flush() throws XMLStreamException;
+
+	void writeEndDocument() throws XMLStreamException;
+
+	void close();
+}
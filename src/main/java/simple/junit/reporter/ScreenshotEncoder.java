@@ -0,0 +1,172 @@
+package simple.junit.reporter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.w3c.dom.Element;
+
+import simple.junit.reporter.ImageHandler.EncodedImage;
+
+/**
+ * Encodes and saves screenshots and recordings on a few threads, and adds
+ * them to their elements once the elements are about to be written. When the
+ * results are streamed, an encoded image is written as Base64 text straight
+ * from its bytes and released once its element is written.
+ */
+final class ScreenshotEncoder {
+
+	private static final long KEEP_ALIVE_SECONDS = 1;
+
+	private static final Logger logger = Logger.getAnonymousLogger();
+
+	private final ThreadPoolExecutor executor;
+
+	private final List<PendingScreenshot> pending = new ArrayList<PendingScreenshot>();
+
+	private final List<Element> streamedImages = new ArrayList<Element>();
+
+	private final ImageFormat format;
+
+	private final boolean streaming;
+
+	private boolean failureLogged;
+
+	ScreenshotEncoder(int threads, ImageFormat format, boolean streaming) {
+		this.format = format;
+		this.streaming = streaming;
+		executor = new ThreadPoolExecutor(threads, threads,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2),
+				new DaemonThreadFactory("screenshot-encoder"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	void encode(final BufferedImage image, Element screenshotElement) {
+		submit(new Callable<Object>() {
+			public Object call() {
+				return ImageHandler.encode(image, format);
+			}
+		}, screenshotElement);
+	}
+
+	void save(final BufferedImage image, final File file,
+			Element screenshotElement) {
+		submit(new Callable<Object>() {
+			public Object call() {
+				if (!ImageHandler.save(image, file, format))
+					return null;
+				return file.getPath();
+			}
+		}, screenshotElement);
+	}
+
+	void encodeAnimation(final List<BufferedImage> frames,
+			final long frameMillis, Element recordingElement) {
+		submit(new Callable<Object>() {
+			public Object call() {
+				return ImageHandler.encodeAnimation(frames, frameMillis);
+			}
+		}, recordingElement);
+	}
+
+	void saveAnimation(final List<BufferedImage> frames,
+			final long frameMillis, final File file, Element recordingElement) {
+		submit(new Callable<Object>() {
+			public Object call() {
+				if (!ImageHandler.saveAnimation(frames, frameMillis, file))
+					return null;
+				return file.getPath();
+			}
+		}, recordingElement);
+	}
+
+	private void submit(Callable<Object> encoding, Element element) {
+		pending.add(new PendingScreenshot(element, executor.submit(encoding)));
+	}
+
+	void awaitAll() {
+		for (PendingScreenshot screenshot : pending) {
+			Object result = screenshot.await();
+			if (result instanceof EncodedImage)
+				add((EncodedImage) result, screenshot.element);
+		}
+		pending.clear();
+	}
+
+	private void add(EncodedImage image, Element element) {
+		if (streaming) {
+			element.setUserData(ImageHandler.ENCODED_IMAGE, image, null);
+			streamedImages.add(element);
+			return;
+		}
+		try {
+			element.appendChild(element.getOwnerDocument().createTextNode(
+					image.toBase64()));
+		} finally {
+			image.release();
+		}
+	}
+
+	/** Releases the images of the elements streamed since the last call. */
+	void releaseStreamed() {
+		for (Element element : streamedImages) {
+			EncodedImage image = (EncodedImage) element.getUserData(
+					ImageHandler.ENCODED_IMAGE);
+			element.setUserData(ImageHandler.ENCODED_IMAGE, null, null);
+			image.release();
+		}
+		streamedImages.clear();
+	}
+
+	/**
+	 * Logs the first failure to encode or save an image, leaving out the next
+	 * ones.
+	 */
+	private void logFailure(Throwable cause) {
+		if (failureLogged)
+			return;
+		failureLogged = true;
+		logger.log(Level.WARNING, "Unable to encode a screenshot", cause);
+	}
+
+	private final class PendingScreenshot {
+
+		private final Element element;
+
+		private final Future<Object> image;
+
+		private PendingScreenshot(Element element, Future<Object> image) {
+			this.element = element;
+			this.image = image;
+		}
+
+		/**
+		 * Waits for the image, removing its element if it could not be
+		 * encoded or saved.
+		 */
+		private Object await() {
+			Object result = null;
+			try {
+				result = image.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				logFailure(e.getCause());
+			}
+			if (result == null)
+				element.getParentNode().removeChild(element);
+			return result;
+		}
+	}
+}
@@ -1,7 +1,11 @@
 package simple.junit.reporter;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.Test;
 
@@ -15,17 +19,32 @@ import simple.junit.reporter.ScreenshotTaker;
 import static org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper2.testClassName;
 import static org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper2.testMethodName;
 import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ERROR;
-import static simple.junit.reporter.ScreenshotTaker.PNG_EXTENSION;
+import static simple.junit.reporter.FrameRecorder.GIF_EXTENSION;
+import static simple.junit.utils.Strings.concat;
 import static simple.junit.utils.Strings.isNullOrEmpty;
 import static simple.junit.utils.Strings.join;
 
 public final class ScreenshotOnFailureResultFormatter extends
 		XmlJUnitResultFormatter {
 
-	private static final String SCREENSHOT_ELEMENT = "screenshot";
-	private static final String SCREENSHOT_FILE_ATTRIBUTE = "file";
+	static final String SCREENSHOT_ELEMENT = "screenshot";
+	static final String SCREENSHOT_FILE_ATTRIBUTE = "file";
+	static final String SCREENSHOT_PATH_ATTRIBUTE = "path";
+	static final String RECORDING_ELEMENT = "recording";
+
+	static final String ENCODER_THREADS_PROPERTY = "simple.junit.reporter.screenshot.threads";
+	static final String SCREENSHOT_DIR_PROPERTY = "simple.junit.reporter.screenshot.dir";
+	static final String ALL_FAILURES_PROPERTY = "simple.junit.reporter.screenshot.all";
 
 	private ScreenshotTaker screenshotTaker;
+	private ScreenshotSettings screenshotSettings;
+	private ScreenshotEncoder screenshotEncoder;
+	private FrameRecorder frameRecorder;
+	private File screenshotDir;
+	private final Map<String, String> storedScreenshots = new HashMap<String, String>();
+	private final Map<String, Boolean> guiTests = new HashMap<String, Boolean>();
+	private final boolean allFailures = Boolean
+			.getBoolean(ALL_FAILURES_PROPERTY);
 	private boolean ready;
 
 	private ImageException couldNotCreateScreenshotTaker;
@@ -33,14 +52,24 @@ public final class ScreenshotOnFailureResultFormatter extends
 	public ScreenshotOnFailureResultFormatter() {
 		try {
 			screenshotTaker = new ScreenshotTaker();
+			screenshotSettings = new ScreenshotSettings();
+			frameRecorder = screenshotSettings.frameRecorder(screenshotTaker);
 			ready = screenshotTaker != null;
 		} catch (ImageException e) {
 			couldNotCreateScreenshotTaker = e;
 		}
+		String dir = System.getProperty(SCREENSHOT_DIR_PROPERTY);
+		if (isNullOrEmpty(dir))
+			return;
+		screenshotDir = new File(dir);
+		screenshotDir.mkdirs();
 	}
 
 	@Override
 	protected void onStartTestSuite(JUnitTest suite) {
+		storedScreenshots.clear();
+		if (frameRecorder != null)
+			frameRecorder.start();
 		if (couldNotCreateScreenshotTaker == null)
 			return;
 		writeCouldNotCreateScreenshotTakerError();
@@ -48,6 +77,12 @@ public final class ScreenshotOnFailureResultFormatter extends
 		return;
 	}
 
+	@Override
+	protected void onEndTestSuite(JUnitTest suite) {
+		if (frameRecorder != null)
+			frameRecorder.stop();
+	}
+
 	private void writeCouldNotCreateScreenshotTakerError() {
 		Element errorElement = document().createElement(ERROR);
 		writeErrorAndStackTrace(couldNotCreateScreenshotTaker, errorElement);
@@ -61,38 +96,117 @@ public final class ScreenshotOnFailureResultFormatter extends
 			return;
 		String className = testClassName(test);
 		String methodName = testMethodName(test);
-//		if (!isGUITest(className, methodName))
-//			return;
-		String image = takeScreenshotAndReturnEncoded();
-		if (isNullOrEmpty(image))
+		if (!allFailures && !isGUITest(className, methodName))
 			return;
-		String imageFileName = join(className, methodName, PNG_EXTENSION).with(".");
-		writeScreenshotFileName(image, imageFileName, errorElement);
+		if (frameRecorder != null)
+			writeRecording(className, methodName, errorElement);
+		writeScreenshot(className, methodName, errorElement);
+	}
+
+	private void writeScreenshot(String className, String methodName,
+			Element errorElement) {
+		BufferedImage image = screenshotSettings.takeScreenshot(screenshotTaker);
+		String contentHash = ImageHandler.contentHash(image);
+		String imageFileName = storedScreenshots.get(contentHash);
+		boolean alreadyStored = imageFileName != null;
+		if (!alreadyStored) {
+			imageFileName = join(className, methodName,
+					screenshotSettings.format().extension()).with(".");
+			storedScreenshots.put(contentHash, imageFileName);
+		}
+		Element screenshotElement = writeScreenshotFileName(
+				SCREENSHOT_ELEMENT, imageFileName, errorElement);
+		if (screenshotDir != null)
+			screenshotElement.setAttribute(SCREENSHOT_PATH_ATTRIBUTE,
+					resultPath(screenshotDir, imageFileName));
+		if (alreadyStored)
+			return;
+		if (screenshotDir == null) {
+			screenshotEncoder().encode(image, screenshotElement);
+			return;
+		}
+		screenshotEncoder().save(image, new File(screenshotDir, imageFileName),
+				screenshotElement);
+	}
+
+	private void writeRecording(String className, String methodName,
+			Element errorElement) {
+		List<BufferedImage> frames = frameRecorder.recentFrames();
+		if (frames.isEmpty())
+			return;
+		String recordingFileName = join(className, methodName, GIF_EXTENSION)
+				.with(".");
+		Element recordingElement = writeScreenshotFileName(RECORDING_ELEMENT,
+				recordingFileName, errorElement);
+		long frameMillis = frameRecorder.intervalMillis();
+		if (screenshotDir == null) {
+			screenshotEncoder().encodeAnimation(frames, frameMillis,
+					recordingElement);
+			return;
+		}
+		recordingElement.setAttribute(SCREENSHOT_PATH_ATTRIBUTE,
+				resultPath(screenshotDir, recordingFileName));
+		screenshotEncoder().saveAnimation(frames, frameMillis,
+				new File(screenshotDir, recordingFileName), recordingElement);
+	}
+
+	private ScreenshotEncoder screenshotEncoder() {
+		if (screenshotEncoder == null)
+			screenshotEncoder = new ScreenshotEncoder(Integer.getInteger(
+					ENCODER_THREADS_PROPERTY, 2), screenshotSettings.format(),
+					isStreaming());
+		return screenshotEncoder;
+	}
+
+	@Override
+	protected void onWritingElements() {
+		if (screenshotEncoder != null)
+			screenshotEncoder.awaitAll();
+	}
+
+	@Override
+	protected void onElementsWritten() {
+		if (screenshotEncoder != null)
+			screenshotEncoder.releaseStreamed();
 	}
 
 	private boolean isGUITest(String className, String methodName) {
+		String testName = concat(className, "#", methodName);
+		Boolean guiTest = guiTests.get(testName);
+		if (guiTest == null) {
+			guiTest = lookUpGUITest(className, methodName);
+			guiTests.put(testName, guiTest);
+		}
+		return guiTest;
+	}
+
+	/**
+	 * Tells whether a test is marked as a GUI test. Tests which cannot be
+	 * looked up, such as parameterized ones, are taken for GUI tests.
+	 */
+	private boolean lookUpGUITest(String className, String methodName) {
+		Class<?> testClass;
+		Method testMethod;
 		try {
-			Class<?> testClass = Class.forName(className);
-			Method testMethod = testClass.getDeclaredMethod(methodName,
-					new Class<?>[0]);
-			return GUITests.isGUITest(testClass, testMethod);
+			testClass = Class.forName(className, false, testClassLoader());
+			testMethod = testClass.getMethod(methodName);
 		} catch (Exception e) {
-			return false;
+			return true;
 		}
+		return GUITests.isGUITest(testClass, testMethod);
 	}
 
-	private String takeScreenshotAndReturnEncoded() {
-		BufferedImage image = screenshotTaker.takeDesktopScreenshot();
-		return ImageHandler.encodeBase64(image);
+	private ClassLoader testClassLoader() {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return loader == null ? getClass().getClassLoader() : loader;
 	}
 
-	private void writeScreenshotFileName(String encodedImage,
+	private Element writeScreenshotFileName(String elementName,
 			String imageFileName, Element errorElement) {
-		Element screenshotElement = document()
-				.createElement(SCREENSHOT_ELEMENT);
+		Element screenshotElement = document().createElement(elementName);
 		screenshotElement
 				.setAttribute(SCREENSHOT_FILE_ATTRIBUTE, imageFileName);
-		writeText(encodedImage, screenshotElement);
 		errorElement.getParentNode().appendChild(screenshotElement);
+		return screenshotElement;
 	}
 }
@@ -0,0 +1,103 @@
+package simple.junit.reporter;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static simple.junit.utils.Strings.concat;
+import static simple.junit.utils.Strings.isNullOrEmpty;
+import static simple.junit.utils.Strings.quote;
+
+final class ScreenshotSettings {
+
+	static final String REGION_PROPERTY = "simple.junit.reporter.screenshot.region";
+	static final String SCALE_PROPERTY = "simple.junit.reporter.screenshot.scale";
+	static final String FORMAT_PROPERTY = "simple.junit.reporter.screenshot.format";
+	static final String GRAYSCALE_PROPERTY = "simple.junit.reporter.screenshot.grayscale";
+	static final String QUALITY_PROPERTY = "simple.junit.reporter.screenshot.quality";
+	static final String RECORDING_FRAMES_PROPERTY = "simple.junit.reporter.recording.frames";
+	static final String RECORDING_INTERVAL_PROPERTY = "simple.junit.reporter.recording.interval";
+	static final String RECORDING_SCALE_PROPERTY = "simple.junit.reporter.recording.scale";
+
+	private static final String FOCUSED_WINDOW = "window";
+
+	private final boolean focusedWindow;
+	private final Rectangle region;
+	private final double scale;
+	private final boolean grayscale;
+	private final ImageFormat format;
+	private final int recordingFrames;
+	private final long recordingInterval;
+	private final double recordingScale;
+
+	ScreenshotSettings() {
+		String region = System.getProperty(REGION_PROPERTY);
+		focusedWindow = FOCUSED_WINDOW.equals(region);
+		this.region = focusedWindow ? null : region(region);
+		scale = scale(SCALE_PROPERTY, 1);
+		grayscale = Boolean.getBoolean(GRAYSCALE_PROPERTY);
+		format = new ImageFormat(System.getProperty(FORMAT_PROPERTY,
+				ImageFormat.PNG.extension()), (float) number(QUALITY_PROPERTY,
+				ImageFormat.DEFAULT_QUALITY));
+		recordingFrames = Integer.getInteger(RECORDING_FRAMES_PROPERTY, 0);
+		recordingInterval = Long.getLong(RECORDING_INTERVAL_PROPERTY, 200);
+		if (recordingInterval <= 0)
+			throw new ImageException(
+					"The recording interval should be greater than 0");
+		recordingScale = scale(RECORDING_SCALE_PROPERTY, 0.25);
+	}
+
+	private static double scale(String property, double defaultValue) {
+		double scale = number(property, defaultValue);
+		if (scale <= 0 || scale > 1)
+			throw new ImageException(concat("The value of ", property,
+					" should be greater than 0 and at most 1"));
+		return scale;
+	}
+
+	private static Rectangle region(String region) {
+		if (isNullOrEmpty(region))
+			return null;
+		String[] bounds = region.split(",");
+		try {
+			if (bounds.length == 4)
+				return new Rectangle(Integer.parseInt(bounds[0].trim()),
+						Integer.parseInt(bounds[1].trim()),
+						Integer.parseInt(bounds[2].trim()),
+						Integer.parseInt(bounds[3].trim()));
+		} catch (NumberFormatException ignored) {
+		}
+		throw new ImageException(concat("The screenshot region should be ",
+				quote(FOCUSED_WINDOW), " or x,y,width,height but was ",
+				quote(region)));
+	}
+
+	private static double number(String property, double defaultValue) {
+		String value = System.getProperty(property);
+		if (isNullOrEmpty(value))
+			return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new ImageException(concat("The value of ", property,
+					" should be a number but was ", quote(value)), e);
+		}
+	}
+
+	BufferedImage takeScreenshot(ScreenshotTaker screenshotTaker) {
+		Rectangle bounds = region;
+		if (focusedWindow)
+			bounds = screenshotTaker.focusedWindowBounds();
+		return screenshotTaker.takeScreenshot(bounds, scale, grayscale);
+	}
+
+	ImageFormat format() {
+		return format;
+	}
+
+	FrameRecorder frameRecorder(ScreenshotTaker screenshotTaker) {
+		if (recordingFrames <= 0)
+			return null;
+		return new FrameRecorder(screenshotTaker, recordingFrames,
+				recordingScale, recordingInterval);
+	}
+}
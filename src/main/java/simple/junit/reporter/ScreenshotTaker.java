@@ -1,9 +1,13 @@
 package simple.junit.reporter;
 
 import java.awt.AWTException;
+import java.awt.Graphics2D;
+import java.awt.KeyboardFocusManager;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Robot;
 import java.awt.Toolkit;
+import java.awt.Window;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -40,9 +44,62 @@ public final class ScreenshotTaker {
 	}
 
 	public BufferedImage takeDesktopScreenshot() {
-		Rectangle screen = new Rectangle(Toolkit.getDefaultToolkit()
-				.getScreenSize());
-		return robot.createScreenCapture(screen);
+		return robot.createScreenCapture(screen());
+	}
+
+	public void takeDesktopScreenshot(BufferedImage frame) {
+		drawScaled(takeDesktopScreenshot(), frame);
+	}
+
+	public BufferedImage takeScreenshot(Rectangle region, double scale,
+			boolean grayscale) {
+		Rectangle bounds = screen();
+		if (region != null)
+			bounds = bounds.intersection(region);
+		if (bounds.isEmpty())
+			bounds = screen();
+		BufferedImage screenshot = robot.createScreenCapture(bounds);
+		if (scale == 1 && !grayscale)
+			return screenshot;
+		return redraw(screenshot, scale, grayscale);
+	}
+
+	public Rectangle focusedWindowBounds() {
+		Window window = KeyboardFocusManager.getCurrentKeyboardFocusManager()
+				.getActiveWindow();
+		if (window == null || !window.isShowing())
+			return null;
+		return new Rectangle(window.getLocationOnScreen(), window.getSize());
+	}
+
+	private Rectangle screen() {
+		return new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
+	}
+
+	private BufferedImage redraw(BufferedImage screenshot, double scale,
+			boolean grayscale) {
+		int width = Math.max(1, (int) Math.round(screenshot.getWidth() * scale));
+		int height = Math.max(1,
+				(int) Math.round(screenshot.getHeight() * scale));
+		int type = grayscale ? BufferedImage.TYPE_BYTE_GRAY : screenshot
+				.getType();
+		if (type == BufferedImage.TYPE_CUSTOM)
+			type = BufferedImage.TYPE_INT_RGB;
+		BufferedImage redrawn = new BufferedImage(width, height, type);
+		drawScaled(screenshot, redrawn);
+		return redrawn;
+	}
+
+	private void drawScaled(BufferedImage source, BufferedImage target) {
+		Graphics2D graphics = target.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(source, 0, 0, target.getWidth(),
+					target.getHeight(), null);
+		} finally {
+			graphics.dispose();
+		}
 	}
 
 	private void validate(String imageFilePath) {
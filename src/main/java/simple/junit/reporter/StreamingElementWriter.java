@@ -0,0 +1,147 @@
+package simple.junit.reporter;
+
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.tools.ant.util.DOMElementWriter;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import simple.junit.reporter.ImageHandler.EncodedImage;
+
+final class StreamingElementWriter implements ResultStreamWriter {
+
+	private static final String UTF_8 = "UTF-8";
+	private static final String CDATA_END = "]]>";
+	private static final String NEW_LINE = "\n";
+	// a multiple of 4, so that every chunk but the last encodes whole bytes
+	private static final int BASE64_CHUNK_LENGTH = 16 * 1024;
+
+	private final XMLStreamWriter writer;
+	private final DOMElementWriter domElementWriter = new DOMElementWriter();
+	private char[] base64Chunk;
+
+	StreamingElementWriter(OutputStream out) throws XMLStreamException {
+		writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out,
+				UTF_8);
+	}
+
+	public void writeStartDocument() throws XMLStreamException {
+		writer.writeStartDocument(UTF_8, "1.0");
+		writer.writeCharacters(NEW_LINE);
+	}
+
+	public void writeStartElement(Element element) throws XMLStreamException {
+		writer.writeStartElement(element.getTagName());
+		writeAttributes(element);
+		writer.writeCharacters(NEW_LINE);
+	}
+
+	public void write(Element element) throws XMLStreamException {
+		writeElement(element);
+		writer.writeCharacters(NEW_LINE);
+	}
+
+	private void writeElement(Element element) throws XMLStreamException {
+		writer.writeStartElement(element.getTagName());
+		writeAttributes(element);
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++)
+			writeNode(children.item(i));
+		Object image = element.getUserData(ImageHandler.ENCODED_IMAGE);
+		if (image != null)
+			writeBase64((EncodedImage) image);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes an encoded image as Base64 text a chunk at a time, rather than
+	 * turning it into text whole first.
+	 */
+	private void writeBase64(EncodedImage image) throws XMLStreamException {
+		if (base64Chunk == null)
+			base64Chunk = new char[BASE64_CHUNK_LENGTH];
+		for (int from = 0; from < image.size(); from += EncodedImage
+				.chunkBytes(base64Chunk))
+			writer.writeCharacters(base64Chunk, 0, image.encode(from,
+					base64Chunk));
+	}
+
+	private void writeAttributes(Element element) throws XMLStreamException {
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr) attributes.item(i);
+			writer.writeAttribute(attribute.getName(),
+					legalCharacters(attribute.getValue()));
+		}
+	}
+
+	private void writeNode(Node node) throws XMLStreamException {
+		switch (node.getNodeType()) {
+		case Node.ELEMENT_NODE:
+			writeElement((Element) node);
+			break;
+		case Node.TEXT_NODE:
+			writer.writeCharacters(legalCharacters(node.getNodeValue()));
+			break;
+		case Node.CDATA_SECTION_NODE:
+			writeCData(legalCharacters(node.getNodeValue()));
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void writeCData(String data) throws XMLStreamException {
+		int start = 0;
+		int end = data.indexOf(CDATA_END);
+		while (end >= 0) {
+			writer.writeCData(data.substring(start, end + 2));
+			start = end + 2;
+			end = data.indexOf(CDATA_END, start);
+		}
+		writer.writeCData(data.substring(start));
+	}
+
+	private String legalCharacters(String value) {
+		StringBuilder legal = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (domElementWriter.isLegalCharacter(c)) {
+				if (legal != null)
+					legal.append(c);
+				continue;
+			}
+			if (legal == null)
+				legal = new StringBuilder(value.substring(0, i));
+		}
+		return legal == null ? value : legal.toString();
+	}
+
+	public void writeEndElement() throws XMLStreamException {
+		writer.writeEndElement();
+		writer.writeCharacters(NEW_LINE);
+	}
+
+	public void flush() throws XMLStreamException {
+		writer.flush();
+	}
+
+	public void writeEndDocument() throws XMLStreamException {
+		writer.writeEndDocument();
+		writer.flush();
+	}
+
+	public void close() {
+		try {
+			writer.close();
+		} catch (XMLStreamException ignored) {
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package simple.junit.reporter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the CPU time and the allocations of the current thread, where the
+ * JVM supports it. Allocations are only measured by the
+ * {@code com.sun.management} extension of the thread bean, which is looked
+ * up by name since JVMs other than HotSpot do not have it.
+ */
+final class ThreadResources {
+
+	static final long UNAVAILABLE = -1;
+
+	private static final String ALLOCATIONS_BEAN = "com.sun.management.ThreadMXBean";
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final boolean cpuTime;
+
+	// null unless allocations are measured
+	private final Method threadAllocatedBytes;
+
+	ThreadResources(boolean cpuTime, boolean allocatedBytes) {
+		this.cpuTime = cpuTime && enableCpuTime();
+		threadAllocatedBytes = allocatedBytes ? enableAllocatedBytes() : null;
+	}
+
+	private boolean enableCpuTime() {
+		try {
+			if (!threads.isCurrentThreadCpuTimeSupported())
+				return false;
+			if (!threads.isThreadCpuTimeEnabled())
+				threads.setThreadCpuTimeEnabled(true);
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Enables measuring allocations, and returns the method that measures
+	 * those of a thread, or {@code null} if they cannot be measured.
+	 */
+	private Method enableAllocatedBytes() {
+		try {
+			Class<?> allocations = Class.forName(ALLOCATIONS_BEAN);
+			if (!allocations.isInstance(threads))
+				return null;
+			if (!(Boolean) allocations.getMethod(
+					"isThreadAllocatedMemorySupported").invoke(threads))
+				return null;
+			if (!(Boolean) allocations.getMethod(
+					"isThreadAllocatedMemoryEnabled").invoke(threads))
+				allocations.getMethod("setThreadAllocatedMemoryEnabled",
+						boolean.class).invoke(threads, true);
+			return allocations.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// unsupported, or not allowed by the security manager
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	long cpuTime() {
+		if (!cpuTime)
+			return UNAVAILABLE;
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	long allocatedBytes() {
+		if (threadAllocatedBytes == null)
+			return UNAVAILABLE;
+		try {
+			return (Long) threadAllocatedBytes.invoke(threads, Thread
+					.currentThread().getId());
+		} catch (IllegalAccessException e) {
+			return UNAVAILABLE;
+		} catch (InvocationTargetException e) {
+			return UNAVAILABLE;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package simple.junit.reporter;
+
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_CLASSNAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_NAME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TESTS;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.ATTR_TIME;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTCASE;
+import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.TESTSUITE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Sums up where the time of a run went, and adds it to the merged results as
+ * a {@code timing} element the reports render: the slowest tests and suites,
+ * slowest first, and the time of each package with a histogram of the times
+ * of its tests.
+ * <p>
+ * The results are gone through once, keeping the slowest tests and suites
+ * in heaps bounded by the number to list rather than sorting them all.
+ */
+final class TimingSummary {
+
+	static final String TIMING = "timing";
+
+	static final String RANGE = "range";
+
+	static final String TEST = "test";
+
+	static final String SUITE = "suite";
+
+	static final String PACKAGE = "package";
+
+	static final String ATTR_LABEL = "label";
+
+	static final String ATTR_COUNT = "count";
+
+	/** Upper bounds of the ranges of the test time histograms, in seconds. */
+	private static final double[] RANGE_BOUNDS = { 0.01, 0.1, 1, 10, 60 };
+
+	private static final String[] RANGE_LABELS = { "under 0.01s",
+			"0.01s to 0.1s", "0.1s to 1s", "1s to 10s", "10s to 60s",
+			"60s and over" };
+
+	private final int count;
+
+	TimingSummary(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * Adds the {@code timing} element of the given merged results, unless
+	 * they have no suite.
+	 */
+	void summarize(Element testsuites) {
+		List<Element> suites = NativeReportRenderer.children(testsuites,
+				TESTSUITE);
+		if (suites.isEmpty())
+			return;
+		Slowest slowestTests = new Slowest(count);
+		Slowest slowestSuites = new Slowest(count);
+		Map<String, PackageTime> packages = new HashMap<String, PackageTime>();
+		double total = 0;
+		for (Element suite : suites) {
+			double suiteTime = NativeReportRenderer.number(suite, ATTR_TIME);
+			total += suiteTime;
+			slowestSuites.offer(suite, suiteTime);
+			String packageName = NativeReportRenderer.packageName(suite);
+			PackageTime packageTime = packages.get(packageName);
+			if (packageTime == null) {
+				packageTime = new PackageTime(packageName);
+				packages.put(packageName, packageTime);
+			}
+			packageTime.time += suiteTime;
+			for (Element testcase : NativeReportRenderer.children(suite,
+					TESTCASE)) {
+				double time = NativeReportRenderer.number(testcase, ATTR_TIME);
+				slowestTests.offer(testcase, time);
+				packageTime.add(time);
+			}
+		}
+		Document document = testsuites.getOwnerDocument();
+		Element timing = document.createElement(TIMING);
+		timing.setAttribute(ATTR_TIME, NativeReportRenderer.number(total));
+		for (String label : RANGE_LABELS) {
+			Element range = document.createElement(RANGE);
+			range.setAttribute(ATTR_LABEL, label);
+			timing.appendChild(range);
+		}
+		for (Element testcase : slowestTests.elements()) {
+			Element test = document.createElement(TEST);
+			test.setAttribute(ATTR_CLASSNAME, testcase
+					.getAttribute(ATTR_CLASSNAME));
+			test.setAttribute(ATTR_NAME, testcase.getAttribute(ATTR_NAME));
+			test.setAttribute(ATTR_TIME, testcase.getAttribute(ATTR_TIME));
+			timing.appendChild(test);
+		}
+		for (Element testsuite : slowestSuites.elements()) {
+			Element suite = document.createElement(SUITE);
+			suite.setAttribute(ATTR_NAME, NativeReportRenderer
+					.className(testsuite));
+			suite.setAttribute(ATTR_TESTS, testsuite.getAttribute(ATTR_TESTS));
+			suite.setAttribute(ATTR_TIME, testsuite.getAttribute(ATTR_TIME));
+			timing.appendChild(suite);
+		}
+		List<PackageTime> byTime = new ArrayList<PackageTime>(packages
+				.values());
+		Collections.sort(byTime);
+		for (PackageTime packageTime : byTime)
+			timing.appendChild(packageTime.toElement(document));
+		testsuites.appendChild(timing);
+	}
+
+	private static int range(double time) {
+		for (int i = 0; i < RANGE_BOUNDS.length; i++)
+			if (time < RANGE_BOUNDS[i])
+				return i;
+		return RANGE_BOUNDS.length;
+	}
+
+	/**
+	 * Keeps the slowest of the elements offered to it in a heap whose head is
+	 * the fastest one kept. Of elements as slow, the first offered are kept.
+	 */
+	private static final class Slowest {
+
+		private final int count;
+
+		private final PriorityQueue<Timed> heap;
+
+		private int offered;
+
+		Slowest(int count) {
+			this.count = count;
+			heap = new PriorityQueue<Timed>(Math.max(1, count + 1));
+		}
+
+		void offer(Element element, double time) {
+			Timed timed = new Timed(element, time, offered++);
+			if (heap.size() < count)
+				heap.add(timed);
+			else if (count > 0 && timed.compareTo(heap.peek()) > 0) {
+				heap.poll();
+				heap.add(timed);
+			}
+		}
+
+		/** Returns the elements kept, slowest first. */
+		List<Element> elements() {
+			List<Timed> slowest = new ArrayList<Timed>(heap);
+			Collections.sort(slowest, Collections.reverseOrder());
+			List<Element> elements = new ArrayList<Element>(slowest.size());
+			for (Timed timed : slowest)
+				elements.add(timed.element);
+			return elements;
+		}
+	}
+
+	/** Orders elements by time, then the earlier offered first as slower. */
+	private static final class Timed implements Comparable<Timed> {
+
+		final Element element;
+
+		final double time;
+
+		final int order;
+
+		Timed(Element element, double time, int order) {
+			this.element = element;
+			this.time = time;
+			this.order = order;
+		}
+
+		public int compareTo(Timed other) {
+			int byTime = Double.compare(time, other.time);
+			return byTime != 0 ? byTime : other.order - order;
+		}
+	}
+
+	/** Orders packages by decreasing time, then by name. */
+	private static final class PackageTime implements Comparable<PackageTime> {
+
+		final String name;
+
+		final int[] counts = new int[RANGE_LABELS.length];
+
+		double time;
+
+		int tests;
+
+		PackageTime(String name) {
+			this.name = name;
+		}
+
+		void add(double testTime) {
+			counts[range(testTime)]++;
+			tests++;
+		}
+
+		Element toElement(Document document) {
+			Element element = document.createElement(PACKAGE);
+			element.setAttribute(ATTR_NAME, name);
+			element.setAttribute(ATTR_TESTS, String.valueOf(tests));
+			element.setAttribute(ATTR_TIME, NativeReportRenderer.number(time));
+			for (int count : counts) {
+				Element range = document.createElement(RANGE);
+				range.setAttribute(ATTR_COUNT, String.valueOf(count));
+				element.appendChild(range);
+			}
+			return element;
+		}
+
+		public int compareTo(PackageTime other) {
+			int byTime = Double.compare(other.time, time);
+			return byTime != 0 ? byTime : name.compareTo(other.name);
+		}
+	}
+}
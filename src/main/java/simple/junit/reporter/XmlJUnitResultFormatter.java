@@ -1,10 +1,15 @@
 package simple.junit.reporter;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
@@ -12,9 +17,11 @@ import java.util.Enumeration;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
@@ -29,13 +36,58 @@ import org.apache.tools.ant.util.DateUtils;
 import org.apache.tools.ant.util.FileUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
 import static org.apache.tools.ant.taskdefs.optional.junit.XMLConstants.*;
+import static simple.junit.utils.Strings.concat;
 import static simple.junit.utils.Strings.isNullOrEmpty;
+import static simple.junit.utils.Strings.quote;
 
 public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 
+	static final String STREAMING_PROPERTY = "simple.junit.reporter.streaming";
+
+	static final String TIME_PRECISION_PROPERTY = "simple.junit.reporter.time.precision";
+
+	static final String CPU_TIME_PROPERTY = "simple.junit.reporter.cputime";
+
+	static final String ALLOCATED_BYTES_PROPERTY = "simple.junit.reporter.allocation";
+
+	static final String OUTPUT_LIMIT_PROPERTY = "simple.junit.reporter.output.limit";
+
+	static final String OUTPUT_DIR_PROPERTY = "simple.junit.reporter.output.dir";
+
+	static final String RESULT_DIR_PROPERTY = "simple.junit.reporter.result.dir";
+
+	static final String COMPRESSION_PROPERTY = "simple.junit.reporter.compression";
+
+	static final String COLLECTOR_PROPERTY = "simple.junit.reporter.collector";
+
+	static final String RESULT_FORMAT_PROPERTY = "simple.junit.reporter.format";
+
+	static final String GZIP = "gzip";
+
+	static final String XML = "xml";
+
+	static final String BINARY = "binary";
+
+	/**
+	 * Extension to give the formatter when the format property asks for
+	 * binary results, so that {@link JUnitReportTask} finds its files.
+	 */
+	public static final String BINARY_EXTENSION = ".bin";
+
+	static final String TOTALS = "totals";
+
+	static final String OUTPUT_PATH_ATTRIBUTE = "path";
+
+	private static final String ATTR_CPU_TIME = "cputime";
+
+	private static final String ATTR_ALLOCATED_BYTES = "allocated";
+
+	private static final int NANOS_SCALE = 9;
+
 	private static final String UNKNOWN = "unknown";
 
 	private static DocumentBuilder documentBuilder() {
@@ -50,30 +102,188 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 
 	private Element rootElement;
 
-	private ConcurrentMap<Test, Element> testElements = new ConcurrentHashMap<Test, Element>();
+	private final ConcurrentMap<Test, TestState> testStates = new ConcurrentHashMap<Test, TestState>();
 
-	private ConcurrentMap<Test, Test> failedTests = new ConcurrentHashMap<Test, Test>();
+	// the last test that ended, for the failures reported after its end
+	private Test endedTest;
 
-	private ConcurrentMap<Test, Long> testStarts = new ConcurrentHashMap<Test, Long>();
+	private Element endedElement;
 
 	private OutputStream out;
 
+	private final String collectorAddress = System
+			.getProperty(COLLECTOR_PROPERTY);
+
+	// results are fed to a collector as they are streamed
+	private final boolean streaming = Boolean.getBoolean(STREAMING_PROPERTY)
+			|| !isNullOrEmpty(collectorAddress);
+
+	private ResultStreamWriter streamWriter;
+
+	private CollectorFeed collectorFeed;
+
+	private final int timePrecision = Integer.getInteger(
+			TIME_PRECISION_PROPERTY, 3);
+
+	private final ThreadResources threadResources = new ThreadResources(
+			Boolean.getBoolean(CPU_TIME_PROPERTY),
+			Boolean.getBoolean(ALLOCATED_BYTES_PROPERTY));
+
+	private final int outputLimit = Integer.getInteger(OUTPUT_LIMIT_PROPERTY,
+			0);
+
+	private final File outputDir = outputDir();
+
+	private final File resultDir = resultDir();
+
+	private final boolean compressed = compressed();
+
+	private final boolean binary = binary();
+
+	private static File outputDir() {
+		String dir = System.getProperty(OUTPUT_DIR_PROPERTY);
+		return isNullOrEmpty(dir) ? null : new File(dir);
+	}
+
+	private static File resultDir() {
+		String dir = System.getProperty(RESULT_DIR_PROPERTY);
+		return isNullOrEmpty(dir) ? null : new File(dir);
+	}
+
+	private static boolean compressed() {
+		String compression = System.getProperty(COMPRESSION_PROPERTY);
+		if (isNullOrEmpty(compression))
+			return false;
+		if (GZIP.equals(compression))
+			return true;
+		throw new BuildException(concat("Unsupported compression ",
+				quote(compression), ", only ", quote(GZIP), " is supported"));
+	}
+
+	/**
+	 * Tells whether the results are written in the compact binary format of
+	 * {@link BinaryElementWriter} rather than as XML, which
+	 * {@link JUnitReportTask} reads alike and {@link BinaryResultConverter}
+	 * turns back into XML for other tools.
+	 */
+	private static boolean binary() {
+		String format = System.getProperty(RESULT_FORMAT_PROPERTY);
+		if (isNullOrEmpty(format) || XML.equals(format))
+			return false;
+		if (BINARY.equals(format))
+			return true;
+		throw new BuildException(concat("Unsupported result format ",
+				quote(format), ", only ", quote(XML), " and ", quote(BINARY),
+				" are supported"));
+	}
+
+	/**
+	 * Sets where the results are written, compressing them with gzip if the
+	 * compression property says so. Results written to the console are never
+	 * compressed.
+	 */
 	public final void setOutput(OutputStream out) {
 		this.out = out;
+		if (!compressed || out == null || out == System.out
+				|| out == System.err)
+			return;
+		try {
+			this.out = new GZIPOutputStream(out, 64 * 1024);
+		} catch (IOException e) {
+			throw new BuildException("Unable to write log file", e);
+		}
 	}
 
 	public final void setSystemOutput(String out) {
-		formatOutput(SYSTEM_OUT, out);
+		formatOutput(SYSTEM_OUT, out, "-out.txt");
 	}
 
 	public final void setSystemError(String out) {
-		formatOutput(SYSTEM_ERR, out);
+		formatOutput(SYSTEM_ERR, out, "-err.txt");
 	}
 
-	private void formatOutput(String type, String output) {
+	/**
+	 * Writes the output of the suite. Output longer than the output limit is
+	 * written to a file of the output directory, whose path the element
+	 * gets instead of the text, or cut down to its beginning and end when
+	 * there is no output directory or the file could not be written.
+	 */
+	private void formatOutput(String type, String output, String fileSuffix) {
 		Element nested = document.createElement(type);
 		rootElement.appendChild(nested);
+		if (outputLimit > 0 && output.length() > outputLimit)
+			output = limitOutput(nested, output, fileSuffix);
 		nested.appendChild(document.createCDATASection(output));
+		streamPendingElements();
+	}
+
+	private String limitOutput(Element nested, String output,
+			String fileSuffix) {
+		if (outputDir == null)
+			return truncate(output);
+		String fileName = concat(rootElement.getAttribute(ATTR_NAME),
+				fileSuffix, compressed ? ".gz" : "");
+		IOException error = spill(output, new File(outputDir, fileName));
+		if (error == null) {
+			nested.setAttribute(OUTPUT_PATH_ATTRIBUTE, resultPath(outputDir,
+					fileName));
+			return "";
+		}
+		return concat("[Unable to write the output to ", quote(fileName),
+				": ", error.getMessage(), "]\n", truncate(output));
+	}
+
+	/**
+	 * Writes the output to the given file, and returns the error that kept it
+	 * from being written whole, if any. A file that could not be written
+	 * whole is deleted.
+	 */
+	private IOException spill(String output, File file) {
+		outputDir.mkdirs();
+		OutputStream out = null;
+		Writer writer = null;
+		try {
+			out = new FileOutputStream(file);
+			writer = new OutputStreamWriter(compressed ? new GZIPOutputStream(
+					out) : out, "UTF8");
+			writer.write(output);
+			// closing finishes the compressed data and can fail too
+			writer.close();
+			return null;
+		} catch (IOException e) {
+			FileUtils.close(writer);
+			FileUtils.close(out);
+			file.delete();
+			return e;
+		}
+	}
+
+	/**
+	 * Returns the path of a file saved with the results, relative to the
+	 * directory of the result files so that they can be moved together.
+	 * Without a result directory, the directory the file is saved in is taken
+	 * to be one of the result directory.
+	 */
+	protected final String resultPath(File dir, String fileName) {
+		File file = new File(dir, fileName).getAbsoluteFile();
+		File from = resultDir != null ? resultDir : file.getParentFile()
+				.getParentFile();
+		if (from == null)
+			return file.getPath();
+		try {
+			return FileUtils.getRelativePath(from, file);
+		} catch (Exception e) {
+			return file.getPath();
+		}
+	}
+
+	private String truncate(String output) {
+		int head = outputLimit / 2;
+		int tail = outputLimit - head;
+		int omitted = output.length() - outputLimit;
+		return concat(output.substring(0, head), "\n[... ", omitted,
+				" characters omitted ...]\n",
+				output.substring(output.length() - tail));
 	}
 
 	protected final Document document() {
@@ -84,14 +294,70 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 		return rootElement;
 	}
 
+	/** Tells whether the results are written as the tests run. */
+	protected final boolean isStreaming() {
+		return streaming;
+	}
+
 	public final void startTestSuite(JUnitTest suite) {
 		document = documentBuilder().newDocument();
 		rootElement = document.createElement(TESTSUITE);
+		endedTest = null;
+		endedElement = null;
 		writeSuiteName(suite.getName());
 		writeTimestamp();
 		writeHostname();
 		writeProperties(suite);
 		onStartTestSuite(suite);
+		if (streaming)
+			startStreaming();
+	}
+
+	private void startStreaming() {
+		if (!isNullOrEmpty(collectorAddress)) {
+			collectorFeed = CollectorFeed.connect(collectorAddress);
+			if (collectorFeed != null)
+				collectorFeed.start(rootElement);
+		}
+		if (out != null) {
+			try {
+				streamWriter = newStreamWriter(out);
+				streamWriter.writeStartDocument();
+				streamWriter.writeStartElement(rootElement);
+			} catch (XMLStreamException e) {
+				throw new BuildException("Unable to write log file", e);
+			}
+		}
+		streamPendingElements();
+	}
+
+	private void streamPendingElements() {
+		if (!streaming)
+			return;
+		onWritingElements();
+		Node child = rootElement.getFirstChild();
+		while (child != null) {
+			Node next = child.getNextSibling();
+			if (child instanceof Element)
+				streamElement((Element) child);
+			rootElement.removeChild(child);
+			child = next;
+		}
+		if (collectorFeed != null)
+			collectorFeed.flush();
+		onElementsWritten();
+	}
+
+	private void streamElement(Element element) {
+		if (collectorFeed != null)
+			collectorFeed.write(element);
+		if (streamWriter == null)
+			return;
+		try {
+			streamWriter.write(element);
+		} catch (XMLStreamException e) {
+			throw new BuildException("Unable to write log file", e);
+		}
 	}
 
 	private void writeSuiteName(String suiteName) {
@@ -135,40 +401,123 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 	protected void onStartTestSuite(JUnitTest suite) {
 	}
 
+	protected void onEndTestSuite(JUnitTest suite) {
+	}
+
 	public final void endTestSuite(JUnitTest suite) throws BuildException {
+		onEndTestSuite(suite);
+		if (streaming) {
+			endStreaming(suite);
+			return;
+		}
+		onWritingElements();
 		rootElement.setAttribute(ATTR_TESTS, "" + suite.runCount());
 		rootElement.setAttribute(ATTR_FAILURES, "" + suite.failureCount());
 		rootElement.setAttribute(ATTR_ERRORS, "" + suite.errorCount());
 		rootElement.setAttribute(ATTR_TIME, "" + (suite.getRunTime() / 1000.0));
 		if (out == null)
 			return;
-		Writer writer = null;
 		try {
-			writer = new BufferedWriter(new OutputStreamWriter(out, "UTF8"));
-			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
-			(new DOMElementWriter()).write(rootElement, writer, 0, "  ");
-			writer.flush();
+			writeResults(rootElement, out);
 		} catch (IOException e) {
 			throw new BuildException("Unable to write log file", e);
 		} finally {
 			if (out != System.out && out != System.err)
-				FileUtils.close(writer);
+				FileUtils.close(out);
+		}
+	}
+
+	/** Writes the results of a suite which was not streamed. */
+	private void writeResults(Element testsuite, OutputStream out)
+			throws IOException {
+		if (binary) {
+			try {
+				new BinaryElementWriter(new BufferedOutputStream(out))
+						.writeDocument(testsuite);
+			} catch (XMLStreamException e) {
+				throw (IOException) new IOException(e.getMessage())
+						.initCause(e);
+			}
+			return;
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF8"));
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+		(new DOMElementWriter()).write(testsuite, writer, 0, "  ");
+		writer.flush();
+	}
+
+	/** Creates the writer of the results streamed as the tests run. */
+	private ResultStreamWriter newStreamWriter(OutputStream out)
+			throws XMLStreamException {
+		if (binary)
+			return new BinaryElementWriter(new BufferedOutputStream(out));
+		return new StreamingElementWriter(out);
+	}
+
+	private void endStreaming(JUnitTest suite) {
+		streamPendingElements();
+		Element totals = document.createElement(TOTALS);
+		totals.setAttribute(ATTR_TESTS, "" + suite.runCount());
+		totals.setAttribute(ATTR_FAILURES, "" + suite.failureCount());
+		totals.setAttribute(ATTR_ERRORS, "" + suite.errorCount());
+		totals.setAttribute(ATTR_TIME, "" + (suite.getRunTime() / 1000.0));
+		if (collectorFeed != null) {
+			collectorFeed.end(totals);
+			collectorFeed = null;
+		}
+		if (streamWriter == null)
+			return;
+		try {
+			streamWriter.write(totals);
+			streamWriter.writeEndElement();
+			streamWriter.writeEndDocument();
+		} catch (XMLStreamException e) {
+			throw new BuildException("Unable to write log file", e);
+		} finally {
+			streamWriter.close();
+			streamWriter = null;
+			if (out != System.out && out != System.err)
+				FileUtils.close(out);
 		}
 	}
 
 	public final void startTest(Test test) {
-		testStarts.put(test, System.currentTimeMillis());
+		testStates.put(test, new TestState(System.nanoTime(),
+				threadResources.cpuTime(), threadResources.allocatedBytes()));
 	}
 
 	public final void endTest(Test test) {
-		if (!testStarts.containsKey(test))
-			startTest(test);
-		Element currentTest = null;
-		if (!failedTests.containsKey(test))
-			currentTest = createAndAddCurrentTest(test);
-		else
-			currentTest = testElements.get(test);
-		writeExecutionTime(test, currentTest);
+		Element element = recordTest(test);
+		testStates.remove(test);
+		endedTest = test;
+		endedElement = element;
+		streamPendingElements();
+	}
+
+	/** Returns the number of tests which started and did not end yet. */
+	final int runningTests() {
+		return testStates.size();
+	}
+
+	/**
+	 * Returns the element of a test, with the time it ran so far. A test
+	 * that already ended keeps its element, and one that never started gets
+	 * an element of its own; neither gets state that would outlive it.
+	 */
+	private Element recordTest(Test test) {
+		TestState state = testStates.get(test);
+		if (state == null) {
+			if (!test.equals(endedTest)) {
+				endedTest = test;
+				endedElement = createAndAddCurrentTest(test);
+				endedElement.setAttribute(ATTR_TIME, seconds(0));
+			}
+			return endedElement;
+		}
+		if (state.element == null)
+			state.element = createAndAddCurrentTest(test);
+		writeExecutionTime(state);
+		return state.element;
 	}
 
 	private Element createAndAddCurrentTest(Test test) {
@@ -179,14 +528,25 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 		currentTest.setAttribute(ATTR_CLASSNAME,
 				JUnitVersionHelper2.testClassName(test));
 		rootElement.appendChild(currentTest);
-		testElements.put(test, currentTest);
 		return currentTest;
 	}
 
-	private void writeExecutionTime(Test test, Element currentTest) {
-		long startTime = testStarts.get(test);
-		double executionTime = (System.currentTimeMillis() - startTime) / 1000.0;
-		currentTest.setAttribute(ATTR_TIME, String.valueOf(executionTime));
+	private void writeExecutionTime(TestState state) {
+		long executionTime = System.nanoTime() - state.startTime;
+		state.element.setAttribute(ATTR_TIME, seconds(executionTime));
+		long cpuTime = threadResources.cpuTime();
+		if (cpuTime != ThreadResources.UNAVAILABLE)
+			state.element.setAttribute(ATTR_CPU_TIME,
+					seconds(cpuTime - state.startCpuTime));
+		long allocatedBytes = threadResources.allocatedBytes();
+		if (allocatedBytes != ThreadResources.UNAVAILABLE)
+			state.element.setAttribute(ATTR_ALLOCATED_BYTES,
+					String.valueOf(allocatedBytes - state.startAllocatedBytes));
+	}
+
+	private String seconds(long nanos) {
+		return BigDecimal.valueOf(nanos, NANOS_SCALE)
+				.setScale(timePrecision, RoundingMode.HALF_UP).toPlainString();
 	}
 
 	public final void addFailure(Test test, Throwable error) {
@@ -204,16 +564,12 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 	}
 
 	private Element formatError(String type, Test test, Throwable error) {
-		if (test != null) {
-			endTest(test);
-			failedTests.put(test, test);
-		}
-		Element errorElement = document.createElement(type);
 		Element currentTest = null;
 		if (test != null)
-			currentTest = testElements.get(test);
+			currentTest = recordTest(test);
 		else
 			currentTest = rootElement;
+		Element errorElement = document.createElement(type);
 		currentTest.appendChild(errorElement);
 		writeErrorAndStackTrace(error, errorElement);
 		return errorElement;
@@ -245,4 +601,29 @@ public class XmlJUnitResultFormatter implements JUnitResultFormatter {
 	protected void onFailureOrError(Test test, Throwable error,
 			Element errorElement) {
 	}
+
+	protected void onWritingElements() {
+	}
+
+	/** Called once the elements of streamed results have been written. */
+	protected void onElementsWritten() {
+	}
+
+	private static final class TestState {
+
+		private final long startTime;
+
+		private final long startCpuTime;
+
+		private final long startAllocatedBytes;
+
+		private Element element;
+
+		private TestState(long startTime, long startCpuTime,
+				long startAllocatedBytes) {
+			this.startTime = startTime;
+			this.startCpuTime = startCpuTime;
+			this.startAllocatedBytes = startAllocatedBytes;
+		}
+	}
 }
@@ -6,6 +6,10 @@
 	<xsl:decimal-format decimal-separator="."
 		grouping-separator="," />
 	<xsl:param name="output.dir" select="'.'" />
+	<!-- the test suites of each package, so that packages are grouped without
+		comparing every suite with all the ones before it -->
+	<xsl:key name="suites.by.package" match="/testsuites/testsuite"
+		use="@package" />
 
 
 	<xsl:template match="testsuites">
@@ -53,9 +57,25 @@
 			</xsl:apply-templates>
 		</redirect:write>
 
+		<!-- create the history.html at the root, when the results were compared 
+			with previous runs -->
+		<xsl:if test="history">
+			<redirect:write file="{$output.dir}/history.html">
+				<xsl:apply-templates select="history" mode="history.page" />
+			</redirect:write>
+		</xsl:if>
+
+		<!-- create the timing.html at the root, when the report task summed 
+			up the times -->
+		<xsl:if test="timing">
+			<redirect:write file="{$output.dir}/timing.html">
+				<xsl:apply-templates select="timing" mode="timing.page" />
+			</redirect:write>
+		</xsl:if>
+
 		<!-- process all packages -->
 		<xsl:for-each
-			select="./testsuite[not(./@package = preceding-sibling::testsuite/@package)]">
+			select="./testsuite[generate-id() = generate-id(key('suites.by.package', @package)[1])]">
 			<xsl:call-template name="package">
 				<xsl:with-param name="name" select="@package" />
 			</xsl:call-template>
@@ -70,41 +90,45 @@
 				<xsl:value-of select="translate($name,'.','/')" />
 			</xsl:if>
 			<xsl:if test="$name = ''">
-				.
+				<xsl:text>.</xsl:text>
 			</xsl:if>
 		</xsl:variable>
 		<!--Processing package <xsl:value-of select="@name"/> in <xsl:value-of 
 			select="$output.dir"/> -->
-		<!-- create a classes-list.html in the package directory -->
-		<redirect:write file="{$output.dir}/{$package.dir}/package-frame.html">
-			<xsl:call-template name="classes.list">
-				<xsl:with-param name="name" select="$name" />
-			</xsl:call-template>
-		</redirect:write>
+		<!-- an incremental report marks the suites whose pages, or whose
+			package pages, are left as the previous report rendered them -->
+		<xsl:if test="not(key('suites.by.package', $name)[1]/@unchanged-package)">
+			<!-- create a classes-list.html in the package directory -->
+			<redirect:write file="{$output.dir}/{$package.dir}/package-frame.html">
+				<xsl:call-template name="classes.list">
+					<xsl:with-param name="name" select="$name" />
+				</xsl:call-template>
+			</redirect:write>
 
-		<!-- create a package-summary.html in the package directory -->
-		<redirect:write file="{$output.dir}/{$package.dir}/package-summary.html">
-			<xsl:call-template name="package.summary">
-				<xsl:with-param name="name" select="$name" />
-			</xsl:call-template>
-		</redirect:write>
+			<!-- create a package-summary.html in the package directory -->
+			<redirect:write file="{$output.dir}/{$package.dir}/package-summary.html">
+				<xsl:call-template name="package.summary">
+					<xsl:with-param name="name" select="$name" />
+				</xsl:call-template>
+			</redirect:write>
+		</xsl:if>
 
 		<!-- for each class, creates a @name.html -->
 		<!-- @bug there will be a problem with inner classes having the same name, 
 			it will be overwritten -->
-		<xsl:for-each select="/testsuites/testsuite[@package = $name]">
+		<xsl:for-each
+			select="key('suites.by.package', $name)[not(@unchanged)]">
 			<redirect:write file="{$output.dir}/{$package.dir}/{@id}_{@name}.html">
 				<xsl:apply-templates select="." mode="class.details" />
 			</redirect:write>
+			<!-- output is written in UTF-8, which the output method has no room for -->
 			<xsl:if test="string-length(./system-out)!=0">
-				<redirect:write file="{$output.dir}/{$package.dir}/{@id}_{@name}-out.txt">
-					<xsl:value-of disable-output-escaping="yes" select="./system-out" />
-				</redirect:write>
+				<xsl:value-of
+					select="java:simple.junit.reporter.ReportTransformer.writeText(string(./system-out), concat($output.dir, '/', $package.dir, '/', @id, '_', @name, '-out.txt'))" />
 			</xsl:if>
 			<xsl:if test="string-length(./system-err)!=0">
-				<redirect:write file="{$output.dir}/{$package.dir}/{@id}_{@name}-err.txt">
-					<xsl:value-of disable-output-escaping="yes" select="./system-err" />
-				</redirect:write>
+				<xsl:value-of
+					select="java:simple.junit.reporter.ReportTransformer.writeText(string(./system-err), concat($output.dir, '/', $package.dir, '/', @id, '_', @name, '-err.txt'))" />
 			</xsl:if>
 			<xsl:if test="@failures != 0">
 				<redirect:write
@@ -292,7 +316,7 @@
 		<xsl:variable name="class.name">
 			<xsl:if test="not($package.name = '')">
 				<xsl:value-of select="$package.name" />
-				.
+				<xsl:text>.</xsl:text>
 			</xsl:if>
 			<xsl:value-of select="@name" />
 		</xsl:variable>
@@ -405,7 +429,7 @@
 						Properties &#187;
 					</a>
 				</div>
-				<xsl:if test="string-length(./system-out)!=0">
+				<xsl:if test="string-length(./system-out)!=0 or ./system-out/@path">
 					<div class="Properties">
 						<a>
 							<xsl:attribute name="href">./<xsl:value-of
@@ -414,7 +438,7 @@
 						</a>
 					</div>
 				</xsl:if>
-				<xsl:if test="string-length(./system-err)!=0">
+				<xsl:if test="string-length(./system-err)!=0 or ./system-err/@path">
 					<div class="Properties">
 						<a>
 							<xsl:attribute name="href">./<xsl:value-of
@@ -430,20 +454,20 @@
 	<!-- Write properties into a JavaScript data structure. This is based on 
 		the original idea by Erik Hatcher (ehatcher@apache.org) -->
 	<xsl:template match="properties">
-		cur = TestCases['
+		<xsl:text>cur = TestCases['</xsl:text>
 		<xsl:value-of select="../@package" />
-		.
+		<xsl:text>.</xsl:text>
 		<xsl:value-of select="../@name" />
-		'] = new Array();
+		<xsl:text>'] = new Array();&#10;</xsl:text>
 		<xsl:for-each select="property">
 			<xsl:sort select="@name" />
-			cur['
+			<xsl:text>cur['</xsl:text>
 			<xsl:value-of select="@name" />
-			'] = '
+			<xsl:text>'] = '</xsl:text>
 			<xsl:call-template name="JS-escape">
 				<xsl:with-param name="string" select="@value" />
 			</xsl:call-template>
-			';
+			<xsl:text>';&#10;</xsl:text>
 		</xsl:for-each>
 	</xsl:template>
 
@@ -483,7 +507,7 @@
 
 				<h2>Classes</h2>
 				<table width="100%">
-					<xsl:for-each select="/testsuites/testsuite[./@package = $name]">
+					<xsl:for-each select="key('suites.by.package', $name)">
 						<xsl:sort select="@name" />
 						<tr>
 							<td nowrap="nowrap">
@@ -557,7 +581,7 @@
 				<h2>Packages</h2>
 				<table width="100%">
 					<xsl:apply-templates
-						select="testsuite[not(./@package = preceding-sibling::testsuite/@package)]"
+						select="testsuite[generate-id() = generate-id(key('suites.by.package', @package)[1])]"
 						mode="all.packages">
 						<xsl:sort select="@package" />
 					</xsl:apply-templates>
@@ -654,18 +678,20 @@
 						</td>
 					</tr>
 				</table>
+				<xsl:apply-templates select="history" mode="summary" />
+				<xsl:apply-templates select="timing" mode="summary" />
 
 				<h2>Packages</h2>
 				<table class="details" border="0" cellpadding="5" cellspacing="2"
 					width="95%">
 					<xsl:call-template name="testsuite.test.header" />
 					<xsl:for-each
-						select="testsuite[not(./@package = preceding-sibling::testsuite/@package)]">
+						select="testsuite[generate-id() = generate-id(key('suites.by.package', @package)[1])]">
 						<xsl:sort select="@package" order="ascending" />
 						<!-- get the node set containing all testsuites that have the same 
 							package -->
 						<xsl:variable name="insamepackage"
-							select="/testsuites/testsuite[./@package = current()/@package]" />
+							select="key('suites.by.package', @package)" />
 						<tr valign="top">
 							<!-- display a failure if there is any failure/error in the package -->
 							<xsl:attribute name="class">
@@ -713,6 +739,284 @@
 	</xsl:template>
 
 
+	<!-- ====================================================================== 
+		The tests which stand out from their results in previous runs, when 
+		the report task compared the results with its history. ====================================================================== -->
+	<xsl:template match="history" mode="history.page">
+		<html>
+			<head>
+				<title>Unit Test Results: History</title>
+				<xsl:call-template name="create.stylesheet.link">
+					<xsl:with-param name="package.name" />
+				</xsl:call-template>
+			</head>
+			<body>
+				<xsl:attribute name="onload">open('allclasses-frame.html','classListFrame')</xsl:attribute>
+				<xsl:call-template name="pageHeader" />
+				<h2>History</h2>
+				<xsl:apply-templates select="." mode="details" />
+			</body>
+		</html>
+	</xsl:template>
+
+
+	<xsl:template match="history" mode="summary">
+		<h2>History</h2>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Previous runs</th>
+				<th>Flaky tests</th>
+				<th>Slower tests</th>
+			</tr>
+			<tr valign="top">
+				<td>
+					<xsl:value-of select="@runs" />
+				</td>
+				<td>
+					<a title="Display flaky tests" href="history.html">
+						<xsl:value-of select="count(flaky)" />
+					</a>
+				</td>
+				<td>
+					<a title="Display slower tests" href="history.html">
+						<xsl:value-of select="count(slower)" />
+					</a>
+				</td>
+			</tr>
+		</table>
+	</xsl:template>
+
+
+	<xsl:template match="history" mode="details">
+		<h3>Flaky Tests</h3>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Class</th>
+				<th>Name</th>
+				<th>Changes</th>
+				<th>Runs</th>
+			</tr>
+			<xsl:for-each select="flaky">
+				<tr valign="top">
+					<td>
+						<xsl:value-of select="@classname" />
+					</td>
+					<td>
+						<xsl:value-of select="@name" />
+					</td>
+					<td>
+						<xsl:value-of select="@flips" />
+					</td>
+					<td>
+						<xsl:value-of select="@runs" />
+					</td>
+				</tr>
+			</xsl:for-each>
+		</table>
+		<h3>Slower Tests</h3>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Class</th>
+				<th>Name</th>
+				<th nowrap="nowrap">Time(s)</th>
+				<th nowrap="nowrap">Median(s)</th>
+				<th nowrap="nowrap">Deviation(s)</th>
+			</tr>
+			<xsl:for-each select="slower">
+				<tr valign="top">
+					<td>
+						<xsl:value-of select="@classname" />
+					</td>
+					<td>
+						<xsl:value-of select="@name" />
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@median" />
+						</xsl:call-template>
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@deviation" />
+						</xsl:call-template>
+					</td>
+				</tr>
+			</xsl:for-each>
+		</table>
+	</xsl:template>
+
+
+	<!-- ====================================================================== 
+		Where the time of the run went, when the report task summed up the 
+		times. ====================================================================== -->
+	<xsl:template match="timing" mode="timing.page">
+		<html>
+			<head>
+				<title>Unit Test Results: Timing</title>
+				<xsl:call-template name="create.stylesheet.link">
+					<xsl:with-param name="package.name" />
+				</xsl:call-template>
+			</head>
+			<body>
+				<xsl:attribute name="onload">open('allclasses-frame.html','classListFrame')</xsl:attribute>
+				<xsl:call-template name="pageHeader" />
+				<h2>Timing</h2>
+				<xsl:apply-templates select="." mode="details" />
+			</body>
+		</html>
+	</xsl:template>
+
+
+	<xsl:template match="timing" mode="summary">
+		<h2>Timing</h2>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Slowest test</th>
+				<th nowrap="nowrap">Time(s)</th>
+				<th>Slowest package</th>
+				<th nowrap="nowrap">Time(s)</th>
+			</tr>
+			<tr valign="top">
+				<xsl:for-each select="test[1]">
+					<td>
+						<a title="Display the slowest tests" href="timing.html">
+							<xsl:value-of select="concat(@classname, '.', @name)" />
+						</a>
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+				</xsl:for-each>
+				<xsl:for-each select="package[1]">
+					<td>
+						<a title="Display the time of each package" href="timing.html">
+							<xsl:call-template name="timing.package.name" />
+						</a>
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+				</xsl:for-each>
+			</tr>
+		</table>
+	</xsl:template>
+
+
+	<xsl:template match="timing" mode="details">
+		<h3>Slowest Tests</h3>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Class</th>
+				<th>Name</th>
+				<th nowrap="nowrap">Time(s)</th>
+			</tr>
+			<xsl:for-each select="test">
+				<tr valign="top">
+					<td>
+						<xsl:value-of select="@classname" />
+					</td>
+					<td>
+						<xsl:value-of select="@name" />
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+				</tr>
+			</xsl:for-each>
+		</table>
+		<h3>Slowest Suites</h3>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Name</th>
+				<th>Tests</th>
+				<th nowrap="nowrap">Time(s)</th>
+			</tr>
+			<xsl:for-each select="suite">
+				<tr valign="top">
+					<td>
+						<xsl:value-of select="@name" />
+					</td>
+					<td>
+						<xsl:value-of select="@tests" />
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+				</tr>
+			</xsl:for-each>
+		</table>
+		<h3>Packages</h3>
+		<table class="details" border="0" cellpadding="5" cellspacing="2"
+			width="95%">
+			<tr valign="top">
+				<th>Name</th>
+				<th>Tests</th>
+				<th nowrap="nowrap">Time(s)</th>
+				<th>Share</th>
+				<xsl:for-each select="range">
+					<th nowrap="nowrap">
+						<xsl:value-of select="@label" />
+					</th>
+				</xsl:for-each>
+			</tr>
+			<xsl:for-each select="package">
+				<tr valign="top">
+					<td>
+						<xsl:call-template name="timing.package.name" />
+					</td>
+					<td>
+						<xsl:value-of select="@tests" />
+					</td>
+					<td>
+						<xsl:call-template name="display-time">
+							<xsl:with-param name="value" select="@time" />
+						</xsl:call-template>
+					</td>
+					<td>
+						<xsl:call-template name="display-percent">
+							<xsl:with-param name="value" select="@time div ../@time" />
+						</xsl:call-template>
+					</td>
+					<xsl:for-each select="range">
+						<td>
+							<xsl:value-of select="@count" />
+						</td>
+					</xsl:for-each>
+				</tr>
+			</xsl:for-each>
+		</table>
+	</xsl:template>
+
+
+	<xsl:template name="timing.package.name">
+		<xsl:choose>
+			<xsl:when test="@name = ''">&lt;none&gt;</xsl:when>
+			<xsl:otherwise>
+				<xsl:value-of select="@name" />
+			</xsl:otherwise>
+		</xsl:choose>
+	</xsl:template>
+
+
 	<xsl:template name="package.summary">
 		<xsl:param name="name" />
 		<html>
@@ -734,7 +1038,7 @@
 					</table -->
 
 				<xsl:variable name="insamepackage"
-					select="/testsuites/testsuite[./@package = $name]" />
+					select="key('suites.by.package', $name)" />
 				<xsl:if test="count($insamepackage) &gt; 0">
 					<h2>Classes</h2>
 					<p>
@@ -894,8 +1198,10 @@
             </xsl:choose>
         </xsl:attribute>
 			<xsl:variable name="class.href">
-				<xsl:value-of
-					select="concat(translate(../@package,'.','/'), '/', ../@id, '_', ../@name, '.html')" />
+				<xsl:if test="not(../@package = '')">
+					<xsl:value-of select="concat(translate(../@package,'.','/'), '/')" />
+				</xsl:if>
+				<xsl:value-of select="concat(../@id, '_', ../@name, '.html')" />
 			</xsl:variable>
 			<xsl:if test="boolean($show.class)">
 				<td>
@@ -925,6 +1231,9 @@
 						<xsl:apply-templates select="screenshot">
 							<xsl:with-param name="package.name" select="$package.name" />
 						</xsl:apply-templates>
+						<xsl:apply-templates select="recording">
+							<xsl:with-param name="package.name" select="$package.name" />
+						</xsl:apply-templates>
 					</td>
 				</xsl:when>
 				<xsl:when test="error">
@@ -934,6 +1243,9 @@
 						<xsl:apply-templates select="screenshot">
 							<xsl:with-param name="package.name" select="$package.name" />
 						</xsl:apply-templates>
+						<xsl:apply-templates select="recording">
+							<xsl:with-param name="package.name" select="$package.name" />
+						</xsl:apply-templates>
 					</td>
 				</xsl:when>
 				<xsl:otherwise>
@@ -989,7 +1301,7 @@
 				<xsl:value-of select="translate($package.name,'.','/')" />
 			</xsl:if>
 			<xsl:if test="$package.name = ''">
-				.
+				<xsl:text>.</xsl:text>
 			</xsl:if>
 		</xsl:variable>
 		<xsl:variable name="screenshot.path">
@@ -1005,8 +1317,11 @@
 		<xsl:variable name="encoded.image">
 			<xsl:value-of select="." />
 		</xsl:variable>
-		<xsl:value-of
-			select="java:simple.junit.reporter.ImageHandler.decodeBase64AndSaveAsPng(string($encoded.image), string($screenshot.fullpath))" />
+		<!-- screenshots saved as sidecar files are copied by the report task -->
+		<xsl:if test="not(@path)">
+			<xsl:value-of
+				select="java:simple.junit.reporter.ImageHandler.decodeBase64AndSave(string($encoded.image), string($screenshot.fullpath))" />
+		</xsl:if>
 		<div>
 			<br />
 			<a>
@@ -1016,6 +1331,35 @@
 		</div>
 	</xsl:template>
 
+	<xsl:template match="recording">
+		<xsl:param name="package.name" />
+		<xsl:variable name="package.dir">
+			<xsl:if test="not($package.name = '')">
+				<xsl:value-of select="translate($package.name,'.','/')" />
+			</xsl:if>
+			<xsl:if test="$package.name = ''">
+				<xsl:text>.</xsl:text>
+			</xsl:if>
+		</xsl:variable>
+		<xsl:variable name="recording.fullpath">
+			<xsl:value-of select="$output.dir" />
+			<xsl:text>/</xsl:text>
+			<xsl:value-of select="$package.dir" />
+			<xsl:text>/</xsl:text>
+			<xsl:value-of select="@file" />
+		</xsl:variable>
+		<xsl:if test="not(@path)">
+			<xsl:value-of
+				select="java:simple.junit.reporter.ImageHandler.decodeBase64ToFile(string(.), string($recording.fullpath))" />
+		</xsl:if>
+		<div>
+			<a>
+				<xsl:attribute name="href"><xsl:value-of select="@file" /></xsl:attribute>
+				<xsl:text>Recording</xsl:text>
+			</a>
+		</div>
+	</xsl:template>
+
 	<xsl:template name="JS-escape">
 		<xsl:param name="string" />
 		<xsl:param name="tmp1"
@@ -1030,8 +1374,19 @@
 		the text from which to convert CR to BR tag -->
 	<xsl:template name="br-replace">
 		<xsl:param name="word" />
-		<xsl:value-of disable-output-escaping="yes"
-			select='stringutils:replace(string($word),"&#xA;","&lt;br/>")' />
+		<xsl:choose>
+			<xsl:when test="contains($word, '&#xA;')">
+				<xsl:value-of select="substring-before($word, '&#xA;')" />
+				<br />
+				<xsl:call-template name="br-replace">
+					<xsl:with-param name="word"
+						select="substring-after($word, '&#xA;')" />
+				</xsl:call-template>
+			</xsl:when>
+			<xsl:otherwise>
+				<xsl:value-of select="$word" />
+			</xsl:otherwise>
+		</xsl:choose>
 	</xsl:template>
 
 	<xsl:template name="display-time">
@@ -33,6 +33,10 @@
 
 <xsl:param name="output.dir" select="'.'"/>
 
+<!-- the test suites of each package, so that packages are grouped without
+     comparing every suite with all the ones before it -->
+<xsl:key name="suites.by.package" match="/testsuites/testsuite" use="@package"/>
+
 <xsl:template match="testsuites">
     <html>
         <head>
@@ -132,6 +136,20 @@
             <xsl:call-template name="summary"/>
             <hr size="1" width="95%" align="left"/>
 
+            <!-- History part, when the results were compared with previous runs -->
+            <xsl:if test="history">
+                <xsl:apply-templates select="history" mode="summary"/>
+                <xsl:apply-templates select="history" mode="details"/>
+                <hr size="1" width="95%" align="left"/>
+            </xsl:if>
+
+            <!-- Timing part, when the report task summed up the times -->
+            <xsl:if test="timing">
+                <h2>Timing</h2>
+                <xsl:apply-templates select="timing" mode="details"/>
+                <hr size="1" width="95%" align="left"/>
+            </xsl:if>
+
             <!-- Package List part -->
             <xsl:call-template name="packagelist"/>
             <hr size="1" width="95%" align="left"/>
@@ -159,9 +177,9 @@
         <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
             <xsl:call-template name="testsuite.test.header"/>
             <!-- list all packages recursively -->
-            <xsl:for-each select="./testsuite[not(./@package = preceding-sibling::testsuite/@package)]">
+            <xsl:for-each select="./testsuite[generate-id() = generate-id(key('suites.by.package', @package)[1])]">
                 <xsl:sort select="@package"/>
-                <xsl:variable name="testsuites-in-package" select="/testsuites/testsuite[./@package = current()/@package]"/>
+                <xsl:variable name="testsuites-in-package" select="key('suites.by.package', @package)"/>
                 <xsl:variable name="testCount" select="sum($testsuites-in-package/@tests)"/>
                 <xsl:variable name="errorCount" select="sum($testsuites-in-package/@errors)"/>
                 <xsl:variable name="failureCount" select="sum($testsuites-in-package/@failures)"/>
@@ -200,7 +218,7 @@
     <!-- ================================================================== -->
     <xsl:template name="packages">
         <!-- create an anchor to this package name -->
-        <xsl:for-each select="/testsuites/testsuite[not(./@package = preceding-sibling::testsuite/@package)]">
+        <xsl:for-each select="/testsuites/testsuite[generate-id() = generate-id(key('suites.by.package', @package)[1])]">
             <xsl:sort select="@package"/>
                 <a name="{@package}"></a>
                 <h3>Package <xsl:value-of select="@package"/></h3>
@@ -209,7 +227,7 @@
                     <xsl:call-template name="testsuite.test.header"/>
 
                     <!-- match the testsuites of this package -->
-                    <xsl:apply-templates select="/testsuites/testsuite[./@package = current()/@package]" mode="print.test"/>
+                    <xsl:apply-templates select="key('suites.by.package', @package)" mode="print.test"/>
                 </table>
                 <a href="#top">Back to top</a>
                 <p/>
@@ -296,6 +314,158 @@
         </table>
     </xsl:template>
 
+    <!-- ================================================================== -->
+    <!-- Write the tests which stand out from their results in previous     -->
+    <!-- runs, when the report task compared the results with its history.  -->
+    <!-- ================================================================== -->
+    <xsl:template match="history" mode="summary">
+        <h2>History</h2>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+        <tr valign="top">
+            <th>Previous runs</th>
+            <th>Flaky tests</th>
+            <th>Slower tests</th>
+        </tr>
+        <tr valign="top">
+            <td><xsl:value-of select="@runs"/></td>
+            <td><xsl:value-of select="count(flaky)"/></td>
+            <td><xsl:value-of select="count(slower)"/></td>
+        </tr>
+        </table>
+    </xsl:template>
+
+    <xsl:template match="history" mode="details">
+        <h3>Flaky Tests</h3>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+            <tr valign="top">
+                <th>Class</th>
+                <th>Name</th>
+                <th>Changes</th>
+                <th>Runs</th>
+            </tr>
+            <xsl:for-each select="flaky">
+                <tr valign="top">
+                    <td><xsl:value-of select="@classname"/></td>
+                    <td><xsl:value-of select="@name"/></td>
+                    <td><xsl:value-of select="@flips"/></td>
+                    <td><xsl:value-of select="@runs"/></td>
+                </tr>
+            </xsl:for-each>
+        </table>
+        <h3>Slower Tests</h3>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+            <tr valign="top">
+                <th>Class</th>
+                <th>Name</th>
+                <th nowrap="nowrap">Time(s)</th>
+                <th nowrap="nowrap">Median(s)</th>
+                <th nowrap="nowrap">Deviation(s)</th>
+            </tr>
+            <xsl:for-each select="slower">
+                <tr valign="top">
+                    <td><xsl:value-of select="@classname"/></td>
+                    <td><xsl:value-of select="@name"/></td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@time"/>
+                    </xsl:call-template>
+                    </td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@median"/>
+                    </xsl:call-template>
+                    </td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@deviation"/>
+                    </xsl:call-template>
+                    </td>
+                </tr>
+            </xsl:for-each>
+        </table>
+    </xsl:template>
+
+    <!-- ================================================================== -->
+    <!-- Write where the time of the run went, when the report task summed  -->
+    <!-- up the times.                                                      -->
+    <!-- ================================================================== -->
+    <xsl:template match="timing" mode="details">
+        <h3>Slowest Tests</h3>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+            <tr valign="top">
+                <th>Class</th>
+                <th>Name</th>
+                <th nowrap="nowrap">Time(s)</th>
+            </tr>
+            <xsl:for-each select="test">
+                <tr valign="top">
+                    <td><xsl:value-of select="@classname"/></td>
+                    <td><xsl:value-of select="@name"/></td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@time"/>
+                    </xsl:call-template>
+                    </td>
+                </tr>
+            </xsl:for-each>
+        </table>
+        <h3>Slowest Suites</h3>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+            <tr valign="top">
+                <th>Name</th>
+                <th>Tests</th>
+                <th nowrap="nowrap">Time(s)</th>
+            </tr>
+            <xsl:for-each select="suite">
+                <tr valign="top">
+                    <td><xsl:value-of select="@name"/></td>
+                    <td><xsl:value-of select="@tests"/></td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@time"/>
+                    </xsl:call-template>
+                    </td>
+                </tr>
+            </xsl:for-each>
+        </table>
+        <h3>Packages</h3>
+        <table class="details" border="0" cellpadding="5" cellspacing="2" width="95%">
+            <tr valign="top">
+                <th>Name</th>
+                <th>Tests</th>
+                <th nowrap="nowrap">Time(s)</th>
+                <th>Share</th>
+                <xsl:for-each select="range">
+                    <th nowrap="nowrap"><xsl:value-of select="@label"/></th>
+                </xsl:for-each>
+            </tr>
+            <xsl:for-each select="package">
+                <tr valign="top">
+                    <td>
+                        <xsl:choose>
+                            <xsl:when test="@name = ''">&lt;none&gt;</xsl:when>
+                            <xsl:otherwise><xsl:value-of select="@name"/></xsl:otherwise>
+                        </xsl:choose>
+                    </td>
+                    <td><xsl:value-of select="@tests"/></td>
+                    <td>
+                    <xsl:call-template name="display-time">
+                        <xsl:with-param name="value" select="@time"/>
+                    </xsl:call-template>
+                    </td>
+                    <td>
+                    <xsl:call-template name="display-percent">
+                        <xsl:with-param name="value" select="@time div ../@time"/>
+                    </xsl:call-template>
+                    </td>
+                    <xsl:for-each select="range">
+                        <td><xsl:value-of select="@count"/></td>
+                    </xsl:for-each>
+                </tr>
+            </xsl:for-each>
+        </table>
+    </xsl:template>
+
   <!--
    Write properties into a JavaScript data structure.
    This is based on the original idea by Erik Hatcher (ehatcher@apache.org)
@@ -394,6 +564,7 @@
                 <td>
                 	<xsl:apply-templates select="failure"/>
                   <xsl:apply-templates select="screenshot" />
+                  <xsl:apply-templates select="recording" />
                 </td>
             </xsl:when>
             <xsl:when test="error">
@@ -401,6 +572,7 @@
                 <td>
                 	<xsl:apply-templates select="error"/>
                   <xsl:apply-templates select="screenshot" />
+                  <xsl:apply-templates select="recording" />
                 </td>
             </xsl:when>
             <xsl:otherwise>
@@ -454,7 +626,10 @@
     <xsl:variable name="encoded.image">
         <xsl:value-of select="."/>   
     </xsl:variable>
-    <xsl:value-of select="java:org.fest.swing.junit.ant.ImageHandler.decodeBase64AndSaveAsPng(string($encoded.image), string($screenshot.fullpath))"/>
+    <!-- screenshots saved as sidecar files are copied by the report task -->
+    <xsl:if test="not(@path)">
+        <xsl:value-of select="java:simple.junit.reporter.ImageHandler.decodeBase64AndSave(string($encoded.image), string($screenshot.fullpath))"/>
+    </xsl:if>
     <div>
     <br/>
     <a>
@@ -464,6 +639,21 @@
     </div>
 </xsl:template>
 
+<xsl:template match="recording">
+    <xsl:variable name="recording.fullpath">
+        <xsl:value-of select="$output.dir" /><xsl:text>/</xsl:text><xsl:value-of select="@file" />
+    </xsl:variable>
+    <xsl:if test="not(@path)">
+        <xsl:value-of select="java:simple.junit.reporter.ImageHandler.decodeBase64ToFile(string(.), string($recording.fullpath))"/>
+    </xsl:if>
+    <div>
+    <a>
+    	<xsl:attribute name="href"><xsl:value-of select="@file"/></xsl:attribute>
+    	<xsl:text>Recording</xsl:text>
+    </a>
+    </div>
+</xsl:template>
+
 <xsl:template name="JS-escape">
     <xsl:param name="string"/>
     <xsl:param name="tmp1" select="stringutils:replace(string($string),'\','\\')"/>
@@ -478,7 +668,18 @@
 -->
 <xsl:template name="br-replace">
     <xsl:param name="word"/>
-    <xsl:value-of disable-output-escaping="yes" select='stringutils:replace(string($word),"&#xA;","&lt;br/>")'/>
+    <xsl:choose>
+        <xsl:when test="contains($word, '&#xA;')">
+            <xsl:value-of select="substring-before($word, '&#xA;')"/>
+            <br/>
+            <xsl:call-template name="br-replace">
+                <xsl:with-param name="word" select="substring-after($word, '&#xA;')"/>
+            </xsl:call-template>
+        </xsl:when>
+        <xsl:otherwise>
+            <xsl:value-of select="$word"/>
+        </xsl:otherwise>
+    </xsl:choose>
 </xsl:template>
 
 <xsl:template name="display-time">
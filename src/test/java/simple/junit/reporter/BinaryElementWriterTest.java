@@ -0,0 +1,173 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class BinaryElementWriterTest {
+
+	/**
+	 * Values on both sides of what is written as a decimal: leading and
+	 * trailing zeros, signs, exponents and the 18 digits a long holds.
+	 */
+	private static final String[] VALUES = { "0", "7", "0.000", "0.5",
+			"12.345", "1.50", "007", "00.1", "1.", ".5", "-1", "1e5", "",
+			"123456789012345678", "1234567890123456789",
+			"12345678901234567.8", "9223372036854775807", "1 2",
+			"f\u00fcr \u65e5\u672c" };
+
+	@Test
+	public void readsBackDecimalsAndStrings() throws Exception {
+		Document document = newDocument();
+		Element testsuite = document.createElement("testsuite");
+		for (int i = 0; i < VALUES.length; i++) {
+			Element testcase = testcase(document, "t" + i);
+			testcase.setAttribute("value", VALUES[i]);
+			testsuite.appendChild(testcase);
+		}
+		Element read = roundTrip(testsuite);
+		for (int i = 0; i < VALUES.length; i++)
+			assertEquals(VALUES[i], ((Element) read.getChildNodes().item(i))
+					.getAttribute("value"));
+	}
+
+	@Test
+	public void readsBackStringTablesBeyondOneByteIndexes() throws Exception {
+		Document document = newDocument();
+		Element testsuite = document.createElement("testsuite");
+		testsuite.setAttribute("name", "Suite");
+		char[] longText = new char[300];
+		Arrays.fill(longText, 'x');
+		for (int i = 0; i < 400; i++) {
+			Element testcase = testcase(document, "t" + (i % 200));
+			Element failure = document.createElement("failure");
+			failure.setAttribute("message", "m" + (i % 150));
+			failure.appendChild(document.createTextNode(new String(longText)
+					+ i));
+			failure.appendChild(document.createCDATASection("<![CDATA[" + i));
+			testcase.appendChild(failure);
+			testsuite.appendChild(testcase);
+		}
+		assertTrue(testsuite.isEqualNode(roundTrip(testsuite)));
+	}
+
+	@Test
+	public void readsTheCompleteRecordsOfATruncatedFile() throws Exception {
+		Document document = newDocument();
+		Element testsuite = document.createElement("testsuite");
+		for (int i = 0; i < 3; i++)
+			testsuite.appendChild(testcase(document, "t" + i));
+		byte[] bytes = write(testsuite);
+		int records = -1;
+		for (int length = 6; length < bytes.length; length++) {
+			BinaryElementReader reader = new BinaryElementReader(
+					new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+			Element read = reader.read(newDocument());
+			assertFalse(reader.complete());
+			int count = read == null ? -1 : read.getChildNodes().getLength();
+			assertTrue(count >= records);
+			records = count;
+		}
+		assertEquals(3, records);
+	}
+
+	@Test
+	public void recountsTheTotalsOfTruncatedFiles() throws Exception {
+		Document document = newDocument();
+		Element testsuite = document.createElement("testsuite");
+		testsuite.setAttribute("name", "p.Truncated");
+		testsuite.appendChild(testcase(document, "passes"));
+		Element failing = testcase(document, "fails");
+		failing.appendChild(document.createElement("failure"));
+		testsuite.appendChild(failing);
+		Element totals = document.createElement("totals");
+		totals.setAttribute("tests", "2");
+		testsuite.appendChild(totals);
+		byte[] bytes = write(testsuite);
+		File dir = File.createTempFile("results", "");
+		dir.delete();
+		dir.mkdirs();
+		File file = new File(dir, "TEST-p.Truncated.bin");
+		File aggregate = new File(dir, "TESTS-TestSuites.xml");
+		try {
+			// cuts the totals record and the end of the suite
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bytes, 0, bytes.length - 12);
+			} finally {
+				out.close();
+			}
+			aggregate(dir);
+			Element merged = (Element) DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().parse(aggregate)
+					.getElementsByTagName("testsuite").item(0);
+			assertEquals("2", merged.getAttribute("tests"));
+			assertEquals("1", merged.getAttribute("failures"));
+			assertEquals("0", merged.getAttribute("errors"));
+		} finally {
+			file.delete();
+			aggregate.delete();
+			dir.delete();
+		}
+	}
+
+	private static void aggregate(File dir) {
+		Project project = new Project();
+		project.init();
+		JUnitReportTask task = new JUnitReportTask();
+		task.setProject(project);
+		task.setTodir(dir);
+		FileSet results = new FileSet();
+		results.setDir(dir);
+		results.setIncludes("TEST-*.bin");
+		task.addFileSet(results);
+		task.execute();
+	}
+
+	private static Element testcase(Document document, String name) {
+		Element testcase = document.createElement("testcase");
+		testcase.setAttribute("classname", "p.Suite");
+		testcase.setAttribute("name", name);
+		testcase.setAttribute("time", "0.001");
+		return testcase;
+	}
+
+	private static Element roundTrip(Element testsuite) throws Exception {
+		BinaryElementReader reader = new BinaryElementReader(
+				new ByteArrayInputStream(write(testsuite)));
+		Element read = reader.read(newDocument());
+		assertTrue(reader.complete());
+		return read;
+	}
+
+	private static byte[] write(Element testsuite) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BinaryElementWriter(out).writeDocument(testsuite);
+		return out.toByteArray();
+	}
+
+	private static Document newDocument() throws IOException {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.newDocument();
+		} catch (Exception e) {
+			throw (IOException) new IOException(e.getMessage()).initCause(e);
+		}
+	}
+}
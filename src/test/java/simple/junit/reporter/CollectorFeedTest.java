@@ -0,0 +1,118 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class CollectorFeedTest {
+
+	private static final int TESTS = 20000;
+
+	private ServerSocket serverSocket;
+
+	@Before
+	public void listen() throws IOException {
+		CollectorFeed.retry();
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+	}
+
+	@After
+	public void close() throws IOException {
+		serverSocket.close();
+		CollectorFeed.retry();
+	}
+
+	@Test
+	public void dropsWholeElementsWhileTheCollectorDoesNotRead()
+			throws Exception {
+		CollectorFeed feed = CollectorFeed.connect(address(serverSocket));
+		assertNotNull(feed);
+		Socket socket = serverSocket.accept();
+		try {
+			Document document = newDocument();
+			Element testsuite = document.createElement("testsuite");
+			testsuite.setAttribute("name", "p.Stalled");
+			feed.start(testsuite);
+			// about 20 MB, five times what the feed queues
+			char[] text = new char[1000];
+			Arrays.fill(text, 'x');
+			for (int i = 0; i < TESTS; i++) {
+				Element testcase = document.createElement("testcase");
+				testcase.setAttribute("name", "t" + i);
+				testcase.appendChild(document.createTextNode(new String(text)));
+				feed.write(testcase);
+				feed.flush();
+			}
+			// reads what was queued, then lets the feed end the suite
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			socket.setSoTimeout(500);
+			readUntilQuiet(socket.getInputStream(), received);
+			feed.end(document.createElement("totals"));
+			socket.setSoTimeout(10000);
+			readUntilQuiet(socket.getInputStream(), received);
+
+			Element read = DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().parse(
+							new ByteArrayInputStream(received.toByteArray()))
+					.getDocumentElement();
+			assertEquals("p.Stalled", read.getAttribute("name"));
+			int testcases = read.getElementsByTagName("testcase").getLength();
+			assertTrue(String.valueOf(testcases), testcases > 0);
+			assertTrue(String.valueOf(testcases), testcases < TESTS);
+			assertEquals(1, read.getElementsByTagName("totals").getLength());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void doesNotConnectAgainOnceTheCollectorCouldNotBeReached()
+			throws Exception {
+		ServerSocket gone = new ServerSocket(0, 50, InetAddress.getByName(null));
+		String goneAddress = address(gone);
+		gone.close();
+		assertNull(CollectorFeed.connect(goneAddress));
+		assertNull(CollectorFeed.connect(address(serverSocket)));
+		CollectorFeed.retry();
+		assertNotNull(CollectorFeed.connect(address(serverSocket)));
+	}
+
+	/** Reads until the end of the stream or a read times out. */
+	private static void readUntilQuiet(InputStream in,
+			ByteArrayOutputStream received) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		try {
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+				received.write(buffer, 0, read);
+		} catch (SocketTimeoutException quiet) {
+		}
+	}
+
+	private static String address(ServerSocket serverSocket) {
+		return "localhost:" + serverSocket.getLocalPort();
+	}
+
+	private static Document newDocument() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.newDocument();
+	}
+}
@@ -0,0 +1,75 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simple.junit.reporter.CompiledStylesheets.CompiledStylesheet;
+
+public class CompiledStylesheetsTest {
+
+	private File stylesheet;
+
+	@Before
+	public void writeStylesheet() throws IOException {
+		stylesheet = File.createTempFile("identity", ".xsl");
+		OutputStream out = new FileOutputStream(stylesheet);
+		try {
+			out.write(("<xsl:stylesheet version=\"1.0\""
+					+ " xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+					+ "<xsl:template match=\"/\"><html/></xsl:template>"
+					+ "</xsl:stylesheet>").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void deleteStylesheet() {
+		stylesheet.delete();
+	}
+
+	@Test
+	public void sharesStylesheetsWithoutClasspathAcrossProjects()
+			throws Exception {
+		assertSame(stylesheet(null, newProject()),
+				stylesheet(null, newProject()));
+	}
+
+	@Test
+	public void sharesStylesheetsWithClasspathWithinTheirProject()
+			throws Exception {
+		Project project = newProject();
+		assertSame(stylesheet(classpath(project), project),
+				stylesheet(classpath(project), project));
+		Project later = newProject();
+		assertNotSame(stylesheet(classpath(project), project),
+				stylesheet(classpath(later), later));
+	}
+
+	private CompiledStylesheet stylesheet(Path classpath, Project project)
+			throws Exception {
+		return CompiledStylesheets.stylesheet(stylesheet.toURI().toString(),
+				stylesheet.lastModified(), classpath, project);
+	}
+
+	private Path classpath(Project project) {
+		return new Path(project, stylesheet.getParent());
+	}
+
+	private static Project newProject() {
+		Project project = new Project();
+		project.init();
+		return project;
+	}
+}
@@ -0,0 +1,36 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GUITestsTest {
+
+	@Test
+	public void findsMarkedClasses() throws Exception {
+		assertTrue(isGUITest(GuiSamples.MarkedClass.class, "test"));
+		assertTrue(isGUITest(GuiSamples.MarkedSuperclass.class, "other"));
+	}
+
+	@Test
+	public void findsMarkedMethods() throws Exception {
+		assertTrue(isGUITest(GuiSamples.MarkedMethod.class, "gui"));
+		assertFalse(isGUITest(GuiSamples.MarkedMethod.class, "plain"));
+		assertTrue(isGUITest(GuiSamples.OverridingMethod.class, "gui"));
+		assertFalse(isGUITest(GuiSamples.OverridingMethod.class, "plain"));
+	}
+
+	@Test
+	public void answersTheSameFromTheCache() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			assertTrue(isGUITest(GuiSamples.OverridingMethod.class, "gui"));
+			assertFalse(isGUITest(GuiSamples.MarkedMethod.class, "plain"));
+		}
+	}
+
+	private static boolean isGUITest(Class<?> type, String methodName)
+			throws Exception {
+		return GUITests.isGUITest(type, type.getMethod(methodName));
+	}
+}
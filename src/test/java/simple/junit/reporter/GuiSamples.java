@@ -0,0 +1,34 @@
+package simple.junit.reporter;
+
+/** Test classes with and without {@link GUITest} marks. */
+final class GuiSamples {
+
+	@GUITest
+	static class MarkedClass {
+		public void test() {
+		}
+	}
+
+	static class MarkedSuperclass extends MarkedClass {
+		public void other() {
+		}
+	}
+
+	static class MarkedMethod {
+		@GUITest
+		public void gui() {
+		}
+
+		public void plain() {
+		}
+	}
+
+	static class OverridingMethod extends MarkedMethod {
+		@Override
+		public void gui() {
+		}
+	}
+
+	private GuiSamples() {
+	}
+}
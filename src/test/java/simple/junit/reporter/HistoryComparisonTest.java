@@ -0,0 +1,89 @@
+package simple.junit.reporter;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class HistoryComparisonTest {
+
+	private File dir;
+
+	private ResultStore store;
+
+	@Before
+	public void openStore() throws IOException {
+		dir = File.createTempFile("history", "");
+		dir.delete();
+		store = ResultStore.open(dir);
+	}
+
+	@After
+	public void deleteStore() throws IOException {
+		store.close();
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void comparesWithTheSpreadOfTheOtherTimesWhenMostAreTheSame()
+			throws Exception {
+		append("1.0", "1.0", "1.0", "1.0", "1.0", "1.0", "1.1", "1.2");
+		assertEquals(1, slowerTests("2.0"));
+		assertEquals(0, slowerTests("1.1"));
+	}
+
+	@Test
+	public void doesNotCompareTestsWhosePreviousTimesAreAllTheSame()
+			throws Exception {
+		append("1.0", "1.0", "1.0", "1.0", "1.0", "1.0");
+		assertEquals(0, slowerTests("2.0"));
+	}
+
+	@Test
+	public void comparesWithTheMedianAbsoluteDeviation() throws Exception {
+		append("1.0", "1.1", "0.9", "1.05", "0.95", "1.0");
+		assertEquals(1, slowerTests("2.0"));
+		assertEquals(0, slowerTests("1.1"));
+	}
+
+	private void append(String... times) throws Exception {
+		for (int run = 0; run < times.length; run++)
+			store.append(run(times[run]), run, singletonList("run" + run));
+	}
+
+	/** Returns how many tests are slower in a run taking the given time. */
+	private int slowerTests(String time) throws Exception {
+		Element testsuites = run(time);
+		new HistoryComparison(store, 30).compare(testsuites);
+		return testsuites.getElementsByTagName(HistoryComparison.SLOWER)
+				.getLength();
+	}
+
+	private static Element run(String time) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder().newDocument();
+		Element testsuites = document.createElement("testsuites");
+		document.appendChild(testsuites);
+		Element testsuite = document.createElement("testsuite");
+		testsuites.appendChild(testsuite);
+		Element testcase = document.createElement("testcase");
+		testcase.setAttribute("classname", "p.Suite");
+		testcase.setAttribute("name", "test");
+		testcase.setAttribute("time", time);
+		testsuite.appendChild(testcase);
+		return testsuites;
+	}
+}
@@ -0,0 +1,101 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import simple.junit.reporter.ImageHandler.EncodedImage;
+
+public class ImageHandlerTest {
+
+	/** Sizes around the padding cases and the chunks of the writers. */
+	private static final int[] SIZES = { 0, 1, 2, 3, 4, 5, 3071, 3072, 3073,
+			12287, 12288, 12289, 100000 };
+
+	@Test
+	public void encodesBase64() throws Exception {
+		for (int size : SIZES)
+			assertEquals(String.valueOf(size), base64(bytes(size)), image(
+					bytes(size)).toBase64());
+	}
+
+	@Test
+	public void streamsEncodedImagesAsText() throws Exception {
+		for (int size : SIZES) {
+			byte[] bytes = bytes(size);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StreamingElementWriter writer = new StreamingElementWriter(out);
+			writer.write(screenshot(newDocument(), image(bytes)));
+			writer.flush();
+			assertEquals(String.valueOf(size), "<screenshot>" + base64(bytes)
+					+ "</screenshot>\n", out.toString("UTF-8"));
+		}
+	}
+
+	@Test
+	public void writesEncodedImagesAsBinaryText() throws Exception {
+		for (int size : SIZES) {
+			byte[] bytes = bytes(size);
+			Document document = newDocument();
+			Element testsuite = document.createElement("testsuite");
+			testsuite.appendChild(screenshot(document, image(bytes)));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new BinaryElementWriter(out).writeDocument(testsuite);
+			Element read = new BinaryElementReader(new ByteArrayInputStream(
+					out.toByteArray())).read(newDocument());
+			assertEquals(String.valueOf(size), base64(bytes), read
+					.getFirstChild().getTextContent());
+		}
+	}
+
+	@Test
+	public void reusesReleasedBuffers() {
+		BufferedImage image = new BufferedImage(8, 8,
+				BufferedImage.TYPE_INT_RGB);
+		EncodedImage encoded = ImageHandler.encode(image, ImageFormat.PNG);
+		String base64 = encoded.toBase64();
+		encoded.release();
+		EncodedImage next = ImageHandler.encode(image, ImageFormat.PNG);
+		assertSame(encoded, next);
+		assertEquals(base64, next.toBase64());
+		next.release();
+	}
+
+	private static Element screenshot(Document document, EncodedImage image) {
+		Element screenshot = document.createElement("screenshot");
+		screenshot.setUserData(ImageHandler.ENCODED_IMAGE, image, null);
+		return screenshot;
+	}
+
+	private static EncodedImage image(byte[] bytes) {
+		EncodedImage image = new EncodedImage();
+		image.write(bytes, 0, bytes.length);
+		return image;
+	}
+
+	private static byte[] bytes(int size) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++)
+			bytes[i] = (byte) (i * 31 + i / 7);
+		return bytes;
+	}
+
+	private static String base64(byte[] bytes) throws Exception {
+		return new String(Base64.encodeBase64(bytes), "US-ASCII");
+	}
+
+	private static Document newDocument() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.newDocument();
+	}
+}
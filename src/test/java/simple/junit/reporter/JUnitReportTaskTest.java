@@ -0,0 +1,101 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class JUnitReportTaskTest {
+
+	private static final int FILES = 200;
+
+	private File dir;
+
+	@Before
+	public void writeResultFiles() throws IOException {
+		dir = File.createTempFile("results", "");
+		dir.delete();
+		dir.mkdirs();
+		// files of very different sizes, so that the parses of the later
+		// ones often finish before those of the earlier ones
+		char[] text = new char[2000];
+		Arrays.fill(text, 'x');
+		for (int i = 0; i < FILES; i++) {
+			String name = "p" + (i % 7) + ".Suite" + i;
+			Writer out = new OutputStreamWriter(new FileOutputStream(new File(
+					dir, "TEST-" + name + ".xml")), "UTF-8");
+			try {
+				int tests = (i * 37) % 60;
+				out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+				out.write("<testsuite name=\"" + name + "\" tests=\"" + tests
+						+ "\" failures=\"0\" errors=\"0\" time=\"1\">\n");
+				for (int test = 0; test < tests; test++)
+					out.write("<testcase classname=\"" + name + "\" name=\"t"
+							+ test + "\" time=\"0.01\"><system-out>"
+							+ new String(text, 0, (i * test) % text.length)
+							+ "</system-out></testcase>\n");
+				out.write("</testsuite>\n");
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	@After
+	public void deleteResultFiles() {
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void mergesInTheSameOrderOnAnyNumberOfThreads() {
+		JUnitReportTask single = task(1);
+		Element expected = single.createDocument();
+		assertEquals(FILES, NativeReportRenderer.children(expected,
+				"testsuite").size());
+		for (int threads = 2; threads <= 8; threads *= 2) {
+			JUnitReportTask parallel = task(threads);
+			Element merged = parallel.createDocument();
+			assertEquals(ids(expected), ids(merged));
+			assertTrue(expected.isEqualNode(merged));
+			assertEquals(single.contentHashes(), parallel.contentHashes());
+		}
+	}
+
+	/** Returns the names and ids of the merged suites, in order. */
+	private static String ids(Element testsuites) {
+		StringBuilder ids = new StringBuilder();
+		for (Element testsuite : NativeReportRenderer.children(testsuites,
+				"testsuite"))
+			ids.append(testsuite.getAttribute("package")).append('.')
+					.append(testsuite.getAttribute("name")).append('=')
+					.append(testsuite.getAttribute("id")).append('\n');
+		return ids.toString();
+	}
+
+	private JUnitReportTask task(int threads) {
+		Project project = new Project();
+		project.init();
+		JUnitReportTask task = new JUnitReportTask();
+		task.setProject(project);
+		task.setThreads(threads);
+		FileSet results = new FileSet();
+		results.setDir(dir);
+		results.setIncludes("TEST-*.xml");
+		task.addFileSet(results);
+		return task;
+	}
+}
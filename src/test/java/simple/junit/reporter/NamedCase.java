@@ -0,0 +1,11 @@
+package simple.junit.reporter;
+
+import junit.framework.TestCase;
+
+/** A test with a given name, reported to the formatters under test. */
+public final class NamedCase extends TestCase {
+
+	public NamedCase(String name) {
+		super(name);
+	}
+}
@@ -0,0 +1,175 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
+import org.apache.tools.ant.types.FileSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Renders the result files under {@code reports} with both engines and checks
+ * they write the same pages, once the differences which do not change what a
+ * browser shows are taken out: white space between and around tags, the
+ * namespace declarations the stylesheets leave on the root element, meta
+ * tags, optional end tags, and the spelling of character references.
+ */
+public class ReportEnginesTest {
+
+	/** Names of the character references of U+00A0 to U+00FF, in order. */
+	private static final String[] LATIN_1_ENTITIES = { "nbsp", "iexcl",
+			"cent", "pound", "curren", "yen", "brvbar", "sect", "uml", "copy",
+			"ordf", "laquo", "not", "shy", "reg", "macr", "deg", "plusmn",
+			"sup2", "sup3", "acute", "micro", "para", "middot", "cedil",
+			"sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest",
+			"Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig",
+			"Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute",
+			"Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc",
+			"Otilde", "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc",
+			"Uuml", "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc",
+			"atilde", "auml", "aring", "aelig", "ccedil", "egrave", "eacute",
+			"ecirc", "euml", "igrave", "iacute", "icirc", "iuml", "eth",
+			"ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide",
+			"oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn",
+			"yuml" };
+
+	private static final Pattern CHARACTER_REFERENCE = Pattern
+			.compile("&(#[0-9]+|[A-Za-z0-9]+);");
+
+	private File reportDir;
+
+	@Before
+	public void createReportDirectory() throws IOException {
+		reportDir = File.createTempFile("reports", "");
+		reportDir.delete();
+		reportDir.mkdirs();
+	}
+
+	@After
+	public void deleteReportDirectory() {
+		delete(reportDir);
+	}
+
+	@Test
+	public void rendersTheSameFramesReportWithBothEngines() throws Exception {
+		assertSameReports("frames");
+	}
+
+	@Test
+	public void rendersTheSameNoFramesReportWithBothEngines()
+			throws Exception {
+		assertSameReports("noframes");
+	}
+
+	private void assertSameReports(String format) throws Exception {
+		File xslt = render(format, "xslt");
+		File nativeReport = render(format, "native");
+		List<String> pages = pages(xslt);
+		assertEquals(pages, pages(nativeReport));
+		for (String page : pages)
+			assertEquals(page, normalize(read(new File(xslt, page))),
+					normalize(read(new File(nativeReport, page))));
+	}
+
+	private File render(String format, String engineName) throws Exception {
+		File toDir = new File(reportDir, format + "-" + engineName);
+		toDir.mkdirs();
+		Project project = new Project();
+		project.init();
+		JUnitReportTask task = new JUnitReportTask();
+		task.setProject(project);
+		task.setTodir(reportDir);
+		task.setTofile(format + "-" + engineName + ".xml");
+		FileSet results = new FileSet();
+		results.setDir(new File(getClass().getResource("reports").toURI()));
+		results.setIncludes("TEST-*.xml");
+		task.addFileSet(results);
+		ReportTransformer report = (ReportTransformer) task.createReport();
+		report.setTodir(toDir);
+		AggregateTransformer.Format reportFormat = new AggregateTransformer.Format();
+		reportFormat.setValue(format);
+		report.setFormat(reportFormat);
+		ReportTransformer.Engine engine = new ReportTransformer.Engine();
+		engine.setValue(engineName);
+		report.setEngine(engine);
+		task.execute();
+		return toDir;
+	}
+
+	/** Returns the paths of the files under the given directory, sorted. */
+	private static List<String> pages(File dir) {
+		List<String> pages = new ArrayList<String>();
+		addPages(dir, "", pages);
+		Collections.sort(pages);
+		return pages;
+	}
+
+	private static void addPages(File dir, String path, List<String> pages) {
+		for (File file : dir.listFiles())
+			if (file.isDirectory())
+				addPages(file, path + file.getName() + "/", pages);
+			else
+				pages.add(path + file.getName());
+	}
+
+	private static String normalize(String page) {
+		String normalized = page.trim().replaceAll("\\s+", " ")
+				.replaceAll(" ?(<[^>]*>) ?", "$1")
+				.replaceAll("(?i)<meta[^>]*>", "")
+				.replaceAll("<html xmlns:[^>]*>", "<html>").replace("</p>", "");
+		Matcher reference = CHARACTER_REFERENCE.matcher(normalized);
+		StringBuffer decoded = new StringBuffer();
+		while (reference.find())
+			reference.appendReplacement(decoded, Matcher
+					.quoteReplacement(decode(reference.group(1))));
+		reference.appendTail(decoded);
+		return decoded.toString().replace("><", ">\n<");
+	}
+
+	/**
+	 * Decodes a reference to a character outside US-ASCII, leaving those to
+	 * markup characters as they are.
+	 */
+	private static String decode(String name) {
+		if (name.startsWith("#"))
+			return new String(Character.toChars(Integer.parseInt(name
+					.substring(1))));
+		for (int i = 0; i < LATIN_1_ENTITIES.length; i++)
+			if (LATIN_1_ENTITIES[i].equals(name))
+				return String.valueOf((char) (0xa0 + i));
+		return "&" + name + ";";
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int read = 0;
+			while (read < content.length)
+				read += in.read(content, read, content.length - read);
+			return new String(content, "ISO-8859-1");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,132 @@
+package simple.junit.reporter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReportManifestTest {
+
+	private static final String SETTINGS = "frames|native";
+
+	private File toDir;
+
+	@Before
+	public void createReportDirectory() throws IOException {
+		toDir = File.createTempFile("report", "");
+		toDir.delete();
+		new File(toDir, "p").mkdirs();
+	}
+
+	@After
+	public void deleteReportDirectory() {
+		for (File file : new File(toDir, "p").listFiles())
+			file.delete();
+		new File(toDir, "p").delete();
+		new File(toDir, ReportManifest.FILE_NAME).delete();
+		toDir.delete();
+	}
+
+	@Test
+	public void isUpToDateWithTheSameSuites() throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.addSuite("p", "B", "b");
+		manifest.store();
+		manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.addSuite("p", "B", "b");
+		assertTrue(manifest.isUpToDate());
+	}
+
+	@Test
+	public void keepsTheIdsOfSuitesAfterARemovedOne() throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		assertEquals("0", manifest.addSuite("p", "A", "a"));
+		assertEquals("1", manifest.addSuite("p", "B", "b"));
+		assertEquals("2", manifest.addSuite("q", "C", "c"));
+		manifest.store();
+		manifest = new ReportManifest(toDir, SETTINGS);
+		assertEquals("1", manifest.addSuite("p", "B", "b"));
+		assertEquals("2", manifest.addSuite("q", "C", "c"));
+		assertEquals("3", manifest.addSuite("q", "D", "d"));
+		assertFalse(manifest.isUpToDate());
+		assertEquals(new HashSet<String>(asList("1", "2")), manifest
+				.unchangedSuites());
+		assertTrue(manifest.unchangedPackages().isEmpty());
+	}
+
+	@Test
+	public void countsSuitesOfTheSameName() throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.addSuite("p", "A", "b");
+		manifest.store();
+		manifest = new ReportManifest(toDir, SETTINGS);
+		assertEquals("0", manifest.addSuite("p", "A", "a"));
+		assertEquals("1", manifest.addSuite("p", "A", "c"));
+		assertEquals(new HashSet<String>(asList("0")), manifest
+				.unchangedSuites());
+	}
+
+	@Test
+	public void rendersEverySuiteAgainWhenTheSettingsChange()
+			throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.store();
+		manifest = new ReportManifest(toDir, "noframes|native");
+		assertEquals("0", manifest.addSuite("p", "A", "a"));
+		assertFalse(manifest.isUpToDate());
+		assertTrue(manifest.unchangedSuites().isEmpty());
+		assertTrue(manifest.unchangedPackages().isEmpty());
+	}
+
+	@Test
+	public void rendersNoSuiteAgainWhenOnlyTheHistoryChanges()
+			throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.setHistory("h1");
+		manifest.store();
+		manifest = new ReportManifest(toDir, SETTINGS);
+		assertEquals("0", manifest.addSuite("p", "A", "a"));
+		manifest.setHistory("h2");
+		assertFalse(manifest.isUpToDate());
+		assertEquals(new HashSet<String>(asList("0")), manifest
+				.unchangedSuites());
+		assertEquals(new HashSet<String>(asList("p")), manifest
+				.unchangedPackages());
+	}
+
+	@Test
+	public void deletesThePagesOfRemovedSuites() throws IOException {
+		ReportManifest manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "A", "a");
+		manifest.addSuite("p", "B", "b");
+		manifest.store();
+		File removed = page("0_A.html");
+		File removedOutput = page("0_A-out.txt");
+		File kept = page("1_B.html");
+		manifest = new ReportManifest(toDir, SETTINGS);
+		manifest.addSuite("p", "B", "b");
+		manifest.deleteRemovedPages();
+		assertFalse(removed.exists());
+		assertFalse(removedOutput.exists());
+		assertTrue(kept.exists());
+	}
+
+	private File page(String name) throws IOException {
+		File page = new File(new File(toDir, "p"), name);
+		page.createNewFile();
+		return page;
+	}
+}
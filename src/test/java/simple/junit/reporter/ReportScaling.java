@@ -0,0 +1,116 @@
+package simple.junit.reporter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Times reports of growing numbers of generated test suites, to check that the
+ * time per suite stays flat as the report grows. Every package holds three
+ * suites of two tests, and one suite in seven has a failure.
+ * <p>
+ * Arguments: the engine ({@code xslt} or {@code native}), the format
+ * ({@code frames} or {@code noframes}), the working directory, then the
+ * numbers of suites to report on. The {@code benchmark} target of the build
+ * runs it from 100 to 50,000 suites.
+ */
+public final class ReportScaling {
+
+	private static final int SUITES_PER_PACKAGE = 3;
+
+	private static final int FAILING_SUITE_INTERVAL = 7;
+
+	private ReportScaling() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: ReportScaling engine format dir suites...");
+			System.exit(1);
+		}
+		String engine = args[0];
+		String format = args[1];
+		File dir = new File(args[2]);
+		System.out.println("  suites        ms   ms/suite");
+		for (int i = 3; i < args.length; i++) {
+			int suites = Integer.parseInt(args[i]);
+			File resultDir = new File(dir, "results-" + suites);
+			generate(resultDir, suites);
+			File reportDir = new File(dir, "report-" + suites);
+			reportDir.mkdirs();
+			long start = System.nanoTime();
+			report(resultDir, reportDir, engine, format);
+			long millis = (System.nanoTime() - start) / 1000000;
+			System.out.println(String.format("%8d %9d %10.3f", suites, millis,
+					(double) millis / suites));
+		}
+	}
+
+	/** Writes the given number of result files, unless they are there. */
+	private static void generate(File dir, int suites) throws IOException {
+		if (new File(dir, "TEST-s" + (suites - 1) + ".xml").isFile())
+			return;
+		dir.mkdirs();
+		for (int i = 0; i < suites; i++)
+			writeSuite(new File(dir, "TEST-s" + i + ".xml"), i);
+	}
+
+	private static void writeSuite(File file, int index) throws IOException {
+		String name = "p" + (index / SUITES_PER_PACKAGE) + ".S" + index;
+		boolean failing = index % FAILING_SUITE_INTERVAL == 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			out.write("<testsuite errors=\"0\" failures=\""
+					+ (failing ? 1 : 0) + "\" hostname=\"bench\" name=\""
+					+ name + "\" tests=\"2\" time=\"0.030\""
+					+ " timestamp=\"2013-06-02T10:15:30\">\n");
+			out.write("  <properties />\n");
+			out.write("  <testcase classname=\"" + name
+					+ "\" name=\"first\" time=\"0.010\" />\n");
+			out.write("  <testcase classname=\"" + name
+					+ "\" name=\"second\" time=\"0.020\">");
+			if (failing)
+				out.write("<failure message=\"expected\""
+						+ " type=\"junit.framework.AssertionFailedError\">"
+						+ "junit.framework.AssertionFailedError: expected"
+						+ "</failure>");
+			out.write("</testcase>\n");
+			out.write("  <system-out></system-out>\n");
+			out.write("  <system-err></system-err>\n");
+			out.write("</testsuite>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void report(File resultDir, File reportDir,
+			String engineName, String format) {
+		Project project = new Project();
+		project.init();
+		JUnitReportTask task = new JUnitReportTask();
+		task.setProject(project);
+		task.setTodir(reportDir);
+		FileSet results = new FileSet();
+		results.setDir(resultDir);
+		results.setIncludes("TEST-*.xml");
+		task.addFileSet(results);
+		ReportTransformer report = (ReportTransformer) task.createReport();
+		report.setTodir(reportDir);
+		AggregateTransformer.Format reportFormat = new AggregateTransformer.Format();
+		reportFormat.setValue(format);
+		report.setFormat(reportFormat);
+		ReportTransformer.Engine engine = new ReportTransformer.Engine();
+		engine.setValue(engineName);
+		report.setEngine(engine);
+		task.execute();
+	}
+}
@@ -0,0 +1,169 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Streams a suite to a collector over a loopback connection, and checks the
+ * report it renders while the suite runs and the result file it writes once
+ * the suite finished.
+ */
+public class ResultCollectorTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	private File dir;
+
+	private File reportDir;
+
+	private File resultDir;
+
+	private ServerSocket serverSocket;
+
+	@Before
+	public void startCollector() throws IOException {
+		CollectorFeed.retry();
+		dir = File.createTempFile("collector", "");
+		dir.delete();
+		reportDir = new File(dir, "report");
+		reportDir.mkdirs();
+		resultDir = new File(dir, "results");
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+	}
+
+	@After
+	public void stopCollector() throws IOException {
+		serverSocket.close();
+		delete(dir);
+	}
+
+	@Test
+	public void rendersTheRunningSuitesAndWritesTheFinishedOnes()
+			throws Exception {
+		ResultCollector collector = new ResultCollector(reportDir, resultDir);
+		collector.listen(serverSocket);
+		Document document = newDocument();
+		Element testsuite = document.createElement("testsuite");
+		testsuite.setAttribute("name", "p.Streamed");
+		CollectorFeed feed = CollectorFeed.connect("localhost:"
+				+ serverSocket.getLocalPort());
+		assertNotNull(feed);
+		feed.start(testsuite);
+		feed.write(testcase(document, "firstTest", true));
+		feed.flush();
+		File page = new File(reportDir, "p/0_Streamed.html");
+		String running = awaitPage(collector, page, "firstTest");
+		assertFalse(running.contains("secondTest"));
+
+		feed.write(testcase(document, "secondTest", false));
+		Element totals = document.createElement("totals");
+		totals.setAttribute("tests", "2");
+		totals.setAttribute("failures", "1");
+		totals.setAttribute("errors", "0");
+		totals.setAttribute("time", "0.002");
+		feed.end(totals);
+		awaitPage(collector, page, "secondTest");
+
+		Element written = awaitResultFile(new File(resultDir,
+				"TEST-p.Streamed.xml"));
+		assertEquals("p.Streamed", written.getAttribute("name"));
+		assertEquals("2", written.getAttribute("tests"));
+		assertEquals("1", written.getAttribute("failures"));
+		assertEquals(2, written.getElementsByTagName("testcase").getLength());
+		assertEquals(1, written.getElementsByTagName("failure").getLength());
+		assertTrue(read(new File(reportDir, "allclasses-frame.html"))
+				.contains("Streamed"));
+	}
+
+	/**
+	 * Renders the report until the page of a suite holds the given text, and
+	 * returns the page.
+	 */
+	private static String awaitPage(ResultCollector collector, File page,
+			String text) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			collector.renderIfChanged();
+			String content = page.isFile() ? read(page) : "";
+			if (content.contains(text))
+				return content;
+			assertTrue("no " + text + " in " + page,
+					System.currentTimeMillis() < deadline);
+			Thread.sleep(20);
+		}
+	}
+
+	/** Waits for the collector to finish writing a result file, and reads it. */
+	private static Element awaitResultFile(File file) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				return DocumentBuilderFactory.newInstance()
+						.newDocumentBuilder().parse(file).getDocumentElement();
+			} catch (Exception e) {
+				// not written yet, or only part of it
+				if (System.currentTimeMillis() > deadline)
+					throw e;
+			}
+			Thread.sleep(20);
+		}
+	}
+
+	private static Element testcase(Document document, String name,
+			boolean failing) {
+		Element testcase = document.createElement("testcase");
+		testcase.setAttribute("classname", "p.Streamed");
+		testcase.setAttribute("name", name);
+		testcase.setAttribute("time", "0.001");
+		if (failing) {
+			Element failure = document.createElement("failure");
+			failure.setAttribute("message", "expected");
+			failure.appendChild(document.createTextNode("at p.Streamed"));
+			testcase.appendChild(failure);
+		}
+		return testcase;
+	}
+
+	private static Document newDocument() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.newDocument();
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int read = 0;
+			while (read < content.length)
+				read += in.read(content, read, content.length - read);
+			return new String(content, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
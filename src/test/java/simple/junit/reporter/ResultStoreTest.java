@@ -0,0 +1,241 @@
+package simple.junit.reporter;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks the store against a model of the runs appended to it, through
+ * reopening, lost heads and interrupted appends.
+ */
+public class ResultStoreTest {
+
+	private static final int RUNS = 60;
+
+	private static final int TESTS_PER_RUN = 200;
+
+	private static final int CLASSES = 50;
+
+	private final Random random = new Random(42);
+
+	// per run, the outcome and time of each test
+	private final List<Map<String, int[]>> model = new ArrayList<Map<String, int[]>>();
+
+	private File dir;
+
+	@Before
+	public void createStoreDirectory() throws IOException {
+		dir = File.createTempFile("history", "");
+		dir.delete();
+	}
+
+	@After
+	public void deleteStoreDirectory() {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void returnsTheResultsOfTheModel() throws Exception {
+		ResultStore store = ResultStore.open(dir);
+		for (int run = 0; run < RUNS; run++) {
+			// run 3 has no results, and every run has new tests
+			int tests = run == 3 ? 0 : TESTS_PER_RUN + run * 10;
+			assertEquals(run, store.append(run(tests), 1000L * run,
+					singletonList("run" + run)));
+			if (run % 7 == 0)
+				store = reopen(store);
+			if (run == 11) {
+				store.close();
+				truncate("heads.dat", 3);
+				store = ResultStore.open(dir);
+			}
+		}
+		store.close();
+		// an append interrupted before its run entry was complete
+		extend("results.dat", 100);
+		extend("tests.dat", 10);
+		extend("runs.dat", 7);
+		store = ResultStore.open(dir);
+		try {
+			assertEquals(RUNS, store.runCount());
+			assertEquals(1000L * (RUNS - 1), store.runTime(RUNS - 1));
+			for (int query = 0; query < 2000; query++)
+				assertQuery(store);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void skipsRunsOfTheSameResultFiles() throws Exception {
+		ResultStore store = ResultStore.open(dir);
+		try {
+			assertEquals(0, store.append(run(10), 0, singletonList("a")));
+			assertEquals(ResultStore.NONE, store.append(run(10), 1,
+					singletonList("a")));
+			assertEquals(1, store.append(run(10), 2, singletonList("b")));
+			assertEquals(2, store.append(run(10), 3, singletonList("a")));
+			assertEquals(3, store.runCount());
+		} finally {
+			store.close();
+		}
+		store = ResultStore.open(dir);
+		try {
+			assertEquals(ResultStore.NONE, store.append(run(10), 4,
+					singletonList("a")));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void opensWithoutWriting() throws Exception {
+		ResultStore.open(dir).close();
+		assertFalse(dir.exists());
+		ResultStore store = ResultStore.open(dir);
+		store.append(run(10), 0, singletonList("a"));
+		store.close();
+		truncate("heads.dat", 3);
+		extend("tests.dat", 10);
+		byte[] heads = read("heads.dat");
+		byte[] tests = read("tests.dat");
+		store = ResultStore.open(dir);
+		try {
+			assertEquals(1, store.runCount());
+			assertEquals(1, store.results("c0", "m0", ResultStore.NONE, 1)
+					.size());
+		} finally {
+			store.close();
+		}
+		assertArrayEquals(heads, read("heads.dat"));
+		assertArrayEquals(tests, read("tests.dat"));
+		store = ResultStore.open(dir);
+		try {
+			assertEquals(1, store.append(run(10), 1, singletonList("b")));
+			assertTrue(read("heads.dat").length > heads.length);
+			assertEquals(2, store.results("c0", "m0", ResultStore.NONE, 2)
+					.size());
+		} finally {
+			store.close();
+		}
+	}
+
+	/** Returns the merged results of a run of the given number of tests. */
+	private Element run(int tests) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder().newDocument();
+		Element testsuites = document.createElement("testsuites");
+		document.appendChild(testsuites);
+		Element testsuite = document.createElement("testsuite");
+		testsuites.appendChild(testsuite);
+		Map<String, int[]> results = new LinkedHashMap<String, int[]>();
+		for (int i = 0; i < tests; i++) {
+			Element testcase = document.createElement("testcase");
+			testcase.setAttribute("classname", "c" + (i % CLASSES));
+			testcase.setAttribute("name", "m" + i);
+			int micros = random.nextInt(5000000);
+			testcase.setAttribute("time", String.valueOf(micros / 1000000.0));
+			int outcome = ResultStore.PASSED;
+			if (random.nextInt(10) == 0) {
+				outcome = ResultStore.FAILED;
+				testcase.appendChild(document.createElement("failure"));
+			} else if (random.nextInt(20) == 0) {
+				outcome = ResultStore.ERRORED;
+				testcase.appendChild(document.createElement("error"));
+			}
+			testsuite.appendChild(testcase);
+			results.put(ResultStore.testName("c" + (i % CLASSES), "m" + i),
+					new int[] { outcome, micros });
+		}
+		model.add(results);
+		return testsuites;
+	}
+
+	/** Checks the results of a random test, outcome and number of runs. */
+	private void assertQuery(ResultStore store) throws IOException {
+		int test = random.nextInt(TESTS_PER_RUN + RUNS * 10);
+		String className = "c" + (test % CLASSES);
+		String methodName = "m" + test;
+		int outcome = random.nextInt(4) - 1;
+		int runs = 1 + random.nextInt(RUNS + 2);
+		List<int[]> expected = new ArrayList<int[]>();
+		for (int run = RUNS - 1; run >= Math.max(RUNS - runs, 0); run--) {
+			int[] result = model.get(run).get(
+					ResultStore.testName(className, methodName));
+			if (result != null && (outcome < 0 || result[0] == outcome))
+				expected.add(new int[] { run, result[0], result[1] });
+		}
+		List<ResultStore.Result> actual = store.results(className,
+				methodName, outcome, runs);
+		String query = methodName + " " + outcome + " " + runs;
+		assertEquals(query, expected.size(), actual.size());
+		for (int i = 0; i < actual.size(); i++) {
+			assertEquals(query, expected.get(i)[0], actual.get(i).run);
+			assertEquals(query, expected.get(i)[1], actual.get(i).outcome);
+			assertEquals(query, expected.get(i)[2], actual.get(i).micros);
+		}
+	}
+
+	private ResultStore reopen(ResultStore store) throws IOException {
+		store.close();
+		return ResultStore.open(dir);
+	}
+
+	private void truncate(String name, long length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(dir, name), "rw");
+		try {
+			file.setLength(length);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void extend(String name, int bytes) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(dir, name), "rw");
+		try {
+			file.seek(file.length());
+			file.write(new byte[bytes]);
+		} finally {
+			file.close();
+		}
+	}
+
+	private byte[] read(String name) throws IOException {
+		File file = new File(dir, name);
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int read = 0;
+			while (read < content.length)
+				read += in.read(content, read, content.length - read);
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+}
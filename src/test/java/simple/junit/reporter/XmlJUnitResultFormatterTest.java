@@ -0,0 +1,177 @@
+package simple.junit.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.AssertionFailedError;
+
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class XmlJUnitResultFormatterTest {
+
+	private static final int TESTS = 100000;
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(XmlJUnitResultFormatter.STREAMING_PROPERTY);
+		System.clearProperty(XmlJUnitResultFormatter.OUTPUT_LIMIT_PROPERTY);
+		System.clearProperty(XmlJUnitResultFormatter.OUTPUT_DIR_PROPERTY);
+		System.clearProperty(XmlJUnitResultFormatter.RESULT_DIR_PROPERTY);
+		System.clearProperty(XmlJUnitResultFormatter.RESULT_FORMAT_PROPERTY);
+	}
+
+	@Test
+	public void keepsNoStateOfEndedTests() throws Exception {
+		System.setProperty(XmlJUnitResultFormatter.STREAMING_PROPERTY, "true");
+		XmlJUnitResultFormatter formatter = new XmlJUnitResultFormatter();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		formatter.setOutput(out);
+		JUnitTest suite = new JUnitTest("simple.sample.LargeSuite");
+		formatter.startTestSuite(suite);
+		int failures = 0;
+		for (int i = 0; i < TESTS; i++) {
+			NamedCase test = new NamedCase("test" + i);
+			formatter.startTest(test);
+			assertEquals(1, formatter.runningTests());
+			if (i % 1000 == 0) {
+				formatter.addFailure(test, new AssertionFailedError("failed"));
+				failures++;
+			}
+			formatter.endTest(test);
+			assertEquals(0, formatter.runningTests());
+		}
+		suite.setCounts(TESTS, failures, 0);
+		formatter.endTestSuite(suite);
+		assertEquals(0, formatter.runningTests());
+		String results = out.toString("UTF-8");
+		assertEquals(TESTS, count(results, "<testcase "));
+		assertEquals(failures, count(results, "<failure "));
+	}
+
+	@Test
+	public void keepsNoStateOfTestsFailingOutsideTheirRun() throws Exception {
+		XmlJUnitResultFormatter formatter = new XmlJUnitResultFormatter();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		formatter.setOutput(out);
+		JUnitTest suite = new JUnitTest("simple.sample.LateSuite");
+		formatter.startTestSuite(suite);
+		NamedCase ended = new NamedCase("ended");
+		formatter.startTest(ended);
+		formatter.endTest(ended);
+		formatter.addFailure(ended, new AssertionFailedError("late"));
+		NamedCase neverStarted = new NamedCase("neverStarted");
+		formatter.addError(neverStarted, new IllegalStateException());
+		formatter.endTest(neverStarted);
+		assertEquals(0, formatter.runningTests());
+		suite.setCounts(2, 1, 1);
+		formatter.endTestSuite(suite);
+		String results = out.toString("UTF-8");
+		assertEquals(2, count(results, "<testcase "));
+		assertEquals(1, count(results, "<failure "));
+		assertEquals(1, count(results, "<error "));
+	}
+
+	@Test
+	public void writesPathsOfSpilledOutputRelativeToTheResults()
+			throws Exception {
+		File resultDir = new File(System.getProperty("java.io.tmpdir"),
+				"simple-junit-" + System.nanoTime());
+		File outputDir = new File(resultDir, "nested/output");
+		System.setProperty(XmlJUnitResultFormatter.OUTPUT_LIMIT_PROPERTY, "10");
+		System.setProperty(XmlJUnitResultFormatter.OUTPUT_DIR_PROPERTY,
+				outputDir.getPath());
+		System.setProperty(XmlJUnitResultFormatter.RESULT_DIR_PROPERTY,
+				resultDir.getPath());
+		XmlJUnitResultFormatter formatter = new XmlJUnitResultFormatter();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		formatter.setOutput(out);
+		JUnitTest suite = new JUnitTest("simple.sample.NoisySuite");
+		formatter.startTestSuite(suite);
+		formatter.setSystemOutput("more than ten characters of output");
+		formatter.endTestSuite(suite);
+		Matcher path = Pattern.compile("<system-out path=\"([^\"]*)\"")
+				.matcher(out.toString("UTF-8"));
+		assertTrue(path.find());
+		assertEquals("nested/output/simple.sample.NoisySuite-out.txt",
+				path.group(1));
+		assertTrue(new File(resultDir, path.group(1)).isFile());
+	}
+
+	@Test
+	public void cutsTheOutputDownWhenItCannotBeSpilled() throws Exception {
+		// a file stands where the output directory should be
+		File file = File.createTempFile("output", "");
+		try {
+			System.setProperty(XmlJUnitResultFormatter.OUTPUT_LIMIT_PROPERTY,
+					"10");
+			System.setProperty(XmlJUnitResultFormatter.OUTPUT_DIR_PROPERTY,
+					new File(file, "output").getPath());
+			XmlJUnitResultFormatter formatter = new XmlJUnitResultFormatter();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			formatter.setOutput(out);
+			JUnitTest suite = new JUnitTest("simple.sample.NoisySuite");
+			formatter.startTestSuite(suite);
+			formatter.setSystemOutput("more than ten characters of output");
+			formatter.endTestSuite(suite);
+			String results = out.toString("UTF-8");
+			assertEquals(0, count(results, "<system-out path="));
+			assertEquals(1, count(results, "[Unable to write the output to "));
+			assertEquals(1, count(results, "more "));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void writesBinaryResultsWhenAskedTo() throws Exception {
+		System.setProperty(XmlJUnitResultFormatter.RESULT_FORMAT_PROPERTY,
+				XmlJUnitResultFormatter.BINARY);
+		for (String streaming : new String[] { "false", "true" }) {
+			System.setProperty(XmlJUnitResultFormatter.STREAMING_PROPERTY,
+					streaming);
+			XmlJUnitResultFormatter formatter = new XmlJUnitResultFormatter();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			formatter.setOutput(out);
+			JUnitTest suite = new JUnitTest("simple.sample.BinarySuite");
+			formatter.startTestSuite(suite);
+			for (int i = 0; i < 3; i++) {
+				NamedCase test = new NamedCase("test" + i);
+				formatter.startTest(test);
+				if (i == 1)
+					formatter.addFailure(test, new AssertionFailedError(
+							"failed"));
+				formatter.endTest(test);
+			}
+			suite.setCounts(3, 1, 0);
+			formatter.endTestSuite(suite);
+			BinaryElementReader reader = new BinaryElementReader(
+					new ByteArrayInputStream(out.toByteArray()));
+			Element testsuite = reader.read(DocumentBuilderFactory
+					.newInstance().newDocumentBuilder().newDocument());
+			assertTrue(streaming, reader.complete());
+			JUnitReportTask.liftStreamedTotals(testsuite);
+			assertEquals(streaming, "3", testsuite.getAttribute("tests"));
+			assertEquals(streaming, "1", testsuite.getAttribute("failures"));
+			assertEquals(streaming, 3, testsuite.getElementsByTagName(
+					"testcase").getLength());
+		}
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+			count++;
+		return count;
+	}
+}